@@ -0,0 +1,55 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+
+/**
+ * Deterministic entities shared by the benchmarks, so that two runs measure the same data.
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    static Maladies maladie(long id, int collectionSize) {
+        Maladies maladie = new Maladies();
+        maladie.setId(id);
+        maladie.setNom("Maladie " + id);
+        maladie.setType(id % 2 == 0 ? "Virale" : "Bactérienne");
+        maladie.setSymptomes(values("symptome", collectionSize));
+        maladie.setTraitements(values("traitement", collectionSize));
+        return maladie;
+    }
+
+    static Patients patient(long id, int collectionSize) {
+        Patients patient = new Patients();
+        patient.setId(id);
+        patient.setNom("Nom" + id);
+        patient.setPrenom("Prenom" + id);
+        patient.setTelephone(600000000 + (int) id);
+        patient.setNum_urgence(690000000 + (int) id);
+        patient.setEmail("patient" + id + "@hopital.cm");
+        patient.setGroupeSanguin("O+");
+        patient.setStade(stadePatient.values()[(int) (id % stadePatient.values().length)]);
+        patient.setSymptomesManifester(values("symptome", collectionSize));
+        patient.setTraitementSuivie(values("traitement", collectionSize));
+        Set<Maladies> maladies = new HashSet<>();
+        for (int i = 0; i < collectionSize; i++) {
+            maladies.add(maladie(i, 2));
+        }
+        patient.setSetMaladies(maladies);
+        return patient;
+    }
+
+    static Set<String> values(String prefix, int count) {
+        Set<String> values = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            values.add(prefix + " " + i);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,54 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+
+/**
+ * Cost of one entity to DTO conversion, by size of the collections of the entity.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class DtoConversionBenchmark {
+
+    @Param({"0", "10", "100"})
+    int collectionSize;
+
+    private Patients patient;
+    private Maladies maladie;
+
+    @Setup
+    public void setUp() {
+        patient = BenchmarkFixtures.patient(1, collectionSize);
+        maladie = BenchmarkFixtures.maladie(1, collectionSize);
+    }
+
+    @Benchmark
+    public PatientDTO convertToPatientDto() {
+        return DtoConversions.toPatientDto(patient);
+    }
+
+    @Benchmark
+    public MaladieDTO convertMaladieToDto() {
+        return DtoConversions.toMaladieDto(maladie);
+    }
+}
@@ -0,0 +1,96 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientPatch;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Cost of reading a PATCH /patients/{id} body and applying it to a loaded patient, without the database
+ * round trips. The patches alternate between two values, so every application changes the patient.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class PatchApplicationBenchmark {
+
+    // Number of symptoms and treatments sent in the collection patch
+    @Param({"1", "10", "100"})
+    int collectionSize;
+
+    private ObjectMapper objectMapper;
+    private Patients patient;
+    private PatientPatch[] scalarPatches;
+    private PatientPatch[] collectionPatches;
+    private byte[] collectionBody;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+        patient = BenchmarkFixtures.patient(1, collectionSize);
+        scalarPatches = new PatientPatch[] {
+            patch(Map.of("nom", "Mbarga", "prenom", "Alice", "email", "alice@hopital.cm", "telephone", 677000000, "stade", "STADE_II")),
+            patch(Map.of("nom", "Fouda", "prenom", "Paul", "email", "paul@hopital.cm", "telephone", 677000001, "stade", "STADE_III"))
+        };
+        List<String> symptomes = List.copyOf(BenchmarkFixtures.values("symptome", collectionSize));
+        List<String> traitements = List.copyOf(BenchmarkFixtures.values("traitement", collectionSize));
+        Map<String, Object> collections = Map.of("symptomesManifester", symptomes, "traitementSuivie", traitements);
+        // The second patch replaces one element of each collection
+        collectionPatches = new PatientPatch[] {
+            patch(collections),
+            patch(Map.of("symptomesManifester", replaceFirst(symptomes), "traitementSuivie", replaceFirst(traitements)))
+        };
+        try {
+            collectionBody = objectMapper.writeValueAsBytes(collections);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Benchmark
+    public boolean applyScalarPatch() {
+        return scalarPatches[next++ & 1].applyTo(patient);
+    }
+
+    @Benchmark
+    public boolean applyCollectionPatch() {
+        return collectionPatches[next++ & 1].applyTo(patient);
+    }
+
+    @Benchmark
+    public PatientPatch readCollectionPatch() throws IOException {
+        return objectMapper.readValue(collectionBody, PatientPatch.class);
+    }
+
+    private PatientPatch patch(Map<String, Object> fields) {
+        return objectMapper.convertValue(fields, PatientPatch.class);
+    }
+
+    private static List<String> replaceFirst(List<String> values) {
+        List<String> replaced = new ArrayList<>(values);
+        replaced.set(0, "remplacé");
+        return replaced;
+    }
+}
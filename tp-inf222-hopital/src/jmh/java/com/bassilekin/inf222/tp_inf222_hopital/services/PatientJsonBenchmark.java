@@ -0,0 +1,64 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+/**
+ * Cost of serializing a list of PatientDTO, as GET /patients does, by number of patients.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class PatientJsonBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int patientCount;
+
+    private ObjectMapper objectMapper;
+    private ObjectWriter listWriter;
+    private List<PatientDTO> patients;
+
+    @Setup
+    public void setUp() {
+        // Same modules as the mapper built by Spring Boot
+        objectMapper = JsonMapper.builder().findAndAddModules().build();
+        listWriter = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, PatientDTO.class));
+        patients = new ArrayList<>(patientCount);
+        for (int i = 0; i < patientCount; i++) {
+            patients.add(DtoConversions.toPatientDto(BenchmarkFixtures.patient(i, 3)));
+        }
+    }
+
+    @Benchmark
+    public byte[] serializeWithObjectMapper() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(patients);
+    }
+
+    // Writer resolved once for the list type, as done for the NDJSON export
+    @Benchmark
+    public byte[] serializeWithTypedWriter() throws JsonProcessingException {
+        return listWriter.writeValueAsBytes(patients);
+    }
+}
@@ -0,0 +1,61 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieMatchDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.bassilekin.inf222.tp_inf222_hopital.events.MaladieChangedEvent;
+
+/**
+ * Latency of a differential lookup, by number of maladies in the index.
+ * Each maladie lists 8 of 200 symptoms, so a common symptom matches about 4% of the catalog.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class SymptomeIndexBenchmark {
+
+    private static final int SYMPTOMES = 200;
+
+    @Param({"1000", "5000"})
+    int maladies;
+
+    private SymptomeIndex index;
+    private Set<String> patientSymptomes;
+
+    @Setup
+    public void setUp() {
+        // The repository is only used by rebuild(): the index is filled through its events
+        index = new SymptomeIndex(null);
+        for (int id = 1; id <= maladies; id++) {
+            Maladies maladie = BenchmarkFixtures.maladie(id, 0);
+            for (int i = 0; i < 8; i++) {
+                maladie.getSymptomes().add("symptome " + (id * 7 + i * 31) % SYMPTOMES);
+            }
+            index.onMaladieChanged(MaladieChangedEvent.created(maladie));
+        }
+        patientSymptomes = Set.of("symptome 3", "symptome 17", "symptome 42", "symptome 99", "symptome 150");
+    }
+
+    @Benchmark
+    public List<MaladieMatchDTO> rankTop50() {
+        return index.rank(patientSymptomes, 50);
+    }
+}
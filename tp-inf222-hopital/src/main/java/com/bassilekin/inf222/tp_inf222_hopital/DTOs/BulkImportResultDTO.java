@@ -0,0 +1,15 @@
+package com.bassilekin.inf222.tp_inf222_hopital.DTOs;
+
+import java.util.List;
+
+public record BulkImportResultDTO(
+    int received, // Rows read from the request body
+    int imported, // Patients created
+    List<RowError> errors // Rejected rows, the others are imported
+) {
+
+    public record RowError(
+        int row, // Position of the row in the body, starting at 1
+        String message
+    ) {}
+}
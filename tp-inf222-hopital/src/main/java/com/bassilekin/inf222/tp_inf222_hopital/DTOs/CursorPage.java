@@ -0,0 +1,12 @@
+package com.bassilekin.inf222.tp_inf222_hopital.DTOs;
+
+import java.util.List;
+
+public record CursorPage<T>(
+    List<T> items,
+    String nextCursor // Opaque token for the following page, null on the last page
+) {
+
+    // Response header carrying nextCursor on the paginated list endpoints
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+}
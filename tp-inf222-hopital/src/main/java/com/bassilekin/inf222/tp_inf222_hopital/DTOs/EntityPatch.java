@@ -0,0 +1,46 @@
+package com.bassilekin.inf222.tp_inf222_hopital.DTOs;
+
+/**
+ * Typed body of a PATCH request, read by a PatchPlan: the value of each field of the plan, or
+ * PatchPlan.ABSENT for the fields the body does not contain. Immutable.
+ * @param <T> The patched entity.
+ */
+public abstract class EntityPatch<T> {
+
+    private final PatchPlan<T> plan;
+    private final Object[] values;
+
+    protected EntityPatch(PatchPlan<T> plan, Object[] values) {
+        this.plan = plan;
+        this.values = values;
+    }
+
+    /**
+     * Sets the properties of the entity whose value differs from the patch; the equal ones are not
+     * written, so a patch repeating the current values leaves the entity clean.
+     * @return whether the entity changed.
+     */
+    public boolean applyTo(T entity) {
+        return plan.apply(entity, values);
+    }
+
+    protected boolean contains(String field) {
+        return values[plan.indexOf(field)] != PatchPlan.ABSENT;
+    }
+
+    protected Object get(String field) {
+        return values[plan.indexOf(field)];
+    }
+
+    // Values of this patch followed by a later one, as a merge of the two bodies would give: the fields
+    // of the later patch replace these, arrays included
+    protected Object[] mergeValues(EntityPatch<T> later) {
+        Object[] merged = values.clone();
+        for (int i = 0; i < merged.length; i++) {
+            if (later.values[i] != PatchPlan.ABSENT) {
+                merged[i] = later.values[i];
+            }
+        }
+        return merged;
+    }
+}
@@ -7,5 +7,6 @@ public record MaladieDTO(
     String nom, 
     String type, 
     List<String> symptomes, 
-    List<String> traitements
+    List<String> traitements,
+    Long version // Sent as the ETag; ignored on create and update, which take If-Match
 ) {}
@@ -0,0 +1,14 @@
+package com.bassilekin.inf222.tp_inf222_hopital.DTOs;
+
+import java.util.List;
+
+/**
+ * A maladie ranked by the symptoms it shares with a patient.
+ * @param symptomesCommuns The symptoms of the patient found in the maladie, as spelled for the patient.
+ * @param totalSymptomes The number of symptoms of the maladie.
+ */
+public record MaladieMatchDTO(
+    Long id,
+    String nom,
+    List<String> symptomesCommuns,
+    int totalSymptomes) {}
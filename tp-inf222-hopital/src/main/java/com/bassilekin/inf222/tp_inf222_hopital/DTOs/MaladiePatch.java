@@ -0,0 +1,39 @@
+package com.bassilekin.inf222.tp_inf222_hopital.DTOs;
+
+import java.io.IOException;
+
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+/**
+ * Body of PATCH /maladies/{id}: any of nom, type, symptomes and traitements.
+ */
+@JsonDeserialize(using = MaladiePatch.Deserializer.class)
+public final class MaladiePatch extends EntityPatch<Maladies> {
+
+    private static final PatchPlan<Maladies> PLAN = PatchPlan.<Maladies>builder(MaladiePatch.class)
+            .requiredText("nom", Maladies::getNom, Maladies::setNom)
+            .text("type", Maladies::getType, Maladies::setType)
+            .textSet("symptomes", Maladies::getSymptomes, Maladies::setSymptomes)
+            .textSet("traitements", Maladies::getTraitements, Maladies::setTraitements)
+            .build();
+
+    private MaladiePatch(Object[] values) {
+        super(PLAN, values);
+    }
+
+    static final class Deserializer extends StdDeserializer<MaladiePatch> {
+
+        Deserializer() {
+            super(MaladiePatch.class);
+        }
+
+        @Override
+        public MaladiePatch deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            return new MaladiePatch(PLAN.read(parser, context));
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.bassilekin.inf222.tp_inf222_hopital.DTOs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+
+/**
+ * Fields that a JSON Merge Patch (RFC 7396) body may change on an entity, compiled once per entity type.
+ * Each field has a reader, which checks the JSON type of its value while the body is parsed, and a writer,
+ * which calls the entity's setter only when the value differs from the current one.
+ * read() goes through the body token by token into the values of an EntityPatch, without building a
+ * Map, so a malformed value is refused (400) before the entity is loaded. Unknown fields are ignored.
+ * @param <T> The patched entity.
+ */
+public final class PatchPlan<T> {
+
+    // Value of the fields absent from the body, as opposed to a JSON null
+    static final Object ABSENT = new Object();
+
+    @FunctionalInterface
+    private interface Reader {
+        // Called on the first token of the value, VALUE_NULL included
+        Object read(JsonParser parser, DeserializationContext context) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Writer<T> {
+        // Returns whether the entity changed
+        boolean write(T entity, Object value);
+    }
+
+    // writer is null for the fields that are not entity properties (maladieIds)
+    private record Field<T>(String name, Reader reader, Writer<T> writer) {
+    }
+
+    private final Class<?> patchType;
+    private final List<Field<T>> fields;
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    private PatchPlan(Class<?> patchType, List<Field<T>> fields) {
+        this.patchType = patchType;
+        this.fields = List.copyOf(fields);
+        for (int i = 0; i < fields.size(); i++) {
+            indexes.put(fields.get(i).name(), i);
+        }
+    }
+
+    /**
+     * @param patchType The EntityPatch subclass deserialized with the plan, named in the error messages.
+     */
+    public static <T> Builder<T> builder(Class<?> patchType) {
+        return new Builder<>(patchType);
+    }
+
+    /**
+     * Reads a JSON object into the values of a patch, one per field of the plan.
+     * @param parser Positioned on the START_OBJECT token of the body.
+     * @throws com.fasterxml.jackson.databind.exc.MismatchedInputException if the body is not an object or a
+     *         value does not have the type of its field.
+     */
+    Object[] read(JsonParser parser, DeserializationContext context) throws IOException {
+        if (!parser.isExpectedStartObjectToken()) {
+            context.reportInputMismatch(patchType, "A patch must be a JSON object");
+        }
+        Object[] values = new Object[fields.size()];
+        Arrays.fill(values, ABSENT);
+        for (String name = parser.nextFieldName(); name != null; name = parser.nextFieldName()) {
+            parser.nextToken();
+            Integer index = indexes.get(name);
+            if (index == null) {
+                parser.skipChildren();
+            } else {
+                values[index] = fields.get(index).reader().read(parser, context);
+            }
+        }
+        return values;
+    }
+
+    boolean apply(T entity, Object[] values) {
+        boolean changed = false;
+        for (int i = 0; i < values.length; i++) {
+            Writer<T> writer = fields.get(i).writer();
+            if (values[i] != ABSENT && writer != null) {
+                changed |= writer.write(entity, values[i]);
+            }
+        }
+        return changed;
+    }
+
+    int indexOf(String name) {
+        Integer index = indexes.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown patch field: " + name);
+        }
+        return index;
+    }
+
+    public static final class Builder<T> {
+
+        private final Class<?> patchType;
+        private final List<Field<T>> fields = new ArrayList<>();
+
+        private Builder(Class<?> patchType) {
+            this.patchType = patchType;
+        }
+
+        // A string; null sets the property to null
+        public Builder<T> text(String name, Function<T, String> getter, BiConsumer<T, String> setter) {
+            return scalar(name, (parser, context) -> parser.currentToken() == JsonToken.VALUE_NULL ? null
+                    : string(parser, context, name), getter, setter);
+        }
+
+        // A string that cannot be removed, for the NOT NULL columns
+        public Builder<T> requiredText(String name, Function<T, String> getter, BiConsumer<T, String> setter) {
+            return scalar(name, (parser, context) -> string(parser, context, name), getter, setter);
+        }
+
+        public Builder<T> integer(String name, Function<T, Integer> getter, BiConsumer<T, Integer> setter) {
+            return scalar(name, (parser, context) -> {
+                if (parser.currentToken() != JsonToken.VALUE_NUMBER_INT || parser.getNumberType() != JsonParser.NumberType.INT) {
+                    return mismatch(context, name, "an integer");
+                }
+                return parser.getIntValue();
+            }, getter, setter);
+        }
+
+        // The name of one of the constants of enumType
+        public <E extends Enum<E>> Builder<T> enumeration(String name, Class<E> enumType, Function<T, E> getter,
+                BiConsumer<T, E> setter) {
+            Map<String, E> constants = new HashMap<>();
+            for (E constant : enumType.getEnumConstants()) {
+                constants.put(constant.name(), constant);
+            }
+            String expected = "one of " + constants.keySet();
+            return scalar(name, (parser, context) -> {
+                E constant = parser.currentToken() == JsonToken.VALUE_STRING ? constants.get(parser.getText()) : null;
+                return constant != null ? constant : mismatch(context, name, expected);
+            }, getter, setter);
+        }
+
+        /**
+         * An array of strings replacing an element collection; null empties it. The collection is edited in
+         * place rather than replaced, so Hibernate deletes and inserts only the elements that changed.
+         */
+        public Builder<T> textSet(String name, Function<T, Set<String>> getter, BiConsumer<T, Set<String>> setter) {
+            Reader reader = (parser, context) -> {
+                Set<String> elements = new HashSet<>();
+                if (parser.currentToken() == JsonToken.VALUE_NULL) {
+                    return elements;
+                }
+                if (parser.currentToken() != JsonToken.START_ARRAY) {
+                    return mismatch(context, name, "an array of strings");
+                }
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() != JsonToken.VALUE_STRING) {
+                        return mismatch(context, name, "an array of strings");
+                    }
+                    elements.add(parser.getText());
+                }
+                return elements;
+            };
+            return add(name, reader, (entity, value) -> {
+                @SuppressWarnings("unchecked")
+                Set<String> elements = (Set<String>) value;
+                Set<String> current = getter.apply(entity);
+                if (current == null) {
+                    setter.accept(entity, new HashSet<>(elements));
+                    return true;
+                }
+                if (current.equals(elements)) {
+                    return false;
+                }
+                current.retainAll(elements);
+                current.addAll(elements);
+                return true;
+            });
+        }
+
+        // An array of IDs read for the service, not written to the entity; null gives an empty list
+        public Builder<T> idList(String name) {
+            return add(name, (parser, context) -> {
+                List<Long> ids = new ArrayList<>();
+                if (parser.currentToken() == JsonToken.VALUE_NULL) {
+                    return ids;
+                }
+                if (parser.currentToken() != JsonToken.START_ARRAY) {
+                    return mismatch(context, name, "an array of IDs");
+                }
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() != JsonToken.VALUE_NUMBER_INT) {
+                        return mismatch(context, name, "an array of IDs");
+                    }
+                    ids.add(parser.getLongValue());
+                }
+                return ids;
+            }, null);
+        }
+
+        public PatchPlan<T> build() {
+            return new PatchPlan<>(patchType, fields);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <V> Builder<T> scalar(String name, Reader reader, Function<T, V> getter, BiConsumer<T, V> setter) {
+            return add(name, reader, (entity, value) -> {
+                if (Objects.equals(getter.apply(entity), value)) {
+                    return false;
+                }
+                setter.accept(entity, (V) value);
+                return true;
+            });
+        }
+
+        private Builder<T> add(String name, Reader reader, Writer<T> writer) {
+            fields.add(new Field<>(name, reader, writer));
+            return this;
+        }
+
+        private String string(JsonParser parser, DeserializationContext context, String name) throws IOException {
+            return parser.currentToken() == JsonToken.VALUE_STRING ? parser.getText() : mismatch(context, name, "a string");
+        }
+
+        private <V> V mismatch(DeserializationContext context, String name, String expected) throws IOException {
+            return context.reportInputMismatch(patchType, "Patch field '%s' must be %s", name, expected);
+        }
+    }
+}
@@ -15,7 +15,8 @@ public record PatientDTO(
     stadePatient stade,
     List<String> symptomesManifester,
     List<String> traitementSuivie,
-    List<MaladieSummaryDTO> maladiesAffectees // Summarized list of associated Maladies
+    List<MaladieSummaryDTO> maladiesAffectees, // Summarized list of associated Maladies
+    Long version // Optimistic locking version, also sent as the ETag
 
 ) {
 
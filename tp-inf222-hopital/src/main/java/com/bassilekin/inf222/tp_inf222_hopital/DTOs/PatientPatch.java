@@ -0,0 +1,61 @@
+package com.bassilekin.inf222.tp_inf222_hopital.DTOs;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+/**
+ * Body of PATCH /patients/{id}: any of the fields of PatientCreateUpdateDTO.
+ */
+@JsonDeserialize(using = PatientPatch.Deserializer.class)
+public final class PatientPatch extends EntityPatch<Patients> {
+
+    private static final String MALADIE_IDS = "maladieIds";
+
+    private static final PatchPlan<Patients> PLAN = PatchPlan.<Patients>builder(PatientPatch.class)
+            .text("nom", Patients::getNom, Patients::setNom)
+            .text("prenom", Patients::getPrenom, Patients::setPrenom)
+            .text("email", Patients::getEmail, Patients::setEmail)
+            .integer("telephone", Patients::getTelephone, Patients::setTelephone)
+            .integer("numUrgence", Patients::getNum_urgence, Patients::setNum_urgence)
+            .text("groupeSanguin", Patients::getGroupeSanguin, Patients::setGroupeSanguin)
+            .enumeration("stade", stadePatient.class, Patients::getStade, Patients::setStade)
+            .textSet("symptomesManifester", Patients::getSymptomesManifester, Patients::setSymptomesManifester)
+            .textSet("traitementSuivie", Patients::getTraitementSuivie, Patients::setTraitementSuivie)
+            .idList(MALADIE_IDS) // Handed to the MaladieLinkReconciler
+            .build();
+
+    private PatientPatch(Object[] values) {
+        super(PLAN, values);
+    }
+
+    // The maladies the patient must be linked to, if the patch changes them
+    @SuppressWarnings("unchecked")
+    public Optional<List<Long>> maladieIds() {
+        return contains(MALADIE_IDS) ? Optional.of((List<Long>) get(MALADIE_IDS)) : Optional.empty();
+    }
+
+    // This patch followed by a later one for the same patient
+    public PatientPatch merge(PatientPatch later) {
+        return new PatientPatch(mergeValues(later));
+    }
+
+    static final class Deserializer extends StdDeserializer<PatientPatch> {
+
+        Deserializer() {
+            super(PatientPatch.class);
+        }
+
+        @Override
+        public PatientPatch deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            return new PatientPatch(PLAN.read(parser, context));
+        }
+    }
+}
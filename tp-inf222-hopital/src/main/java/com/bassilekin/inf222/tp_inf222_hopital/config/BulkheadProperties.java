@@ -0,0 +1,52 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Concurrency limits of RequestBulkheadFilter, one per class of endpoint.
+ * A limit left unset is a share of the connections the requests can use (60% CRUD, 20% images,
+ * 20% statistics, at least 1 each): the pool minus the ones taken outside requests, so that together
+ * the requests never ask for more connections than the pool has left for them.
+ * @param enabled Whether the limits apply, false by default; application.properties enables them with
+ *                virtual threads (VIRTUAL_THREADS), since Tomcat's thread pool bounds the requests otherwise.
+ * @param maxWait How long a request waits for a permit before being answered 503 Service Unavailable.
+ * @param crud Concurrent requests on the patients and maladies endpoints.
+ * @param images Concurrent requests on /images, whose blob reads can be slow.
+ * @param stats Concurrent requests on the /stats endpoints.
+ */
+@ConfigurationProperties(prefix = "app.bulkhead")
+public record BulkheadProperties(
+    @DefaultValue("false") boolean enabled,
+    @DefaultValue("500ms") Duration maxWait,
+    Integer crud,
+    Integer images,
+    Integer stats
+) {
+
+    /**
+     * @param poolSize The maximum size of the connection pool.
+     * @param reserved The connections taken outside requests (background workers, own transactions).
+     * @return The limit of each endpoint class, the configured one or its share of the remaining connections.
+     */
+    public Limits resolve(int poolSize, int reserved) {
+        int available = Math.max(0, poolSize - reserved);
+        return new Limits(
+            crud != null ? crud : share(available, 0.6),
+            images != null ? images : share(available, 0.2),
+            stats != null ? stats : share(available, 0.2));
+    }
+
+    private static int share(int connections, double ratio) {
+        return Math.max(1, (int) (connections * ratio));
+    }
+
+    public record Limits(int crud, int images, int stats) {
+
+        public int total() {
+            return crud + images + stats;
+        }
+    }
+}
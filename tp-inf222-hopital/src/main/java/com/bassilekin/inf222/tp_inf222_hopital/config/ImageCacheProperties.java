@@ -0,0 +1,47 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+
+/**
+ * Cache-Control policy of the image downloads.
+ * @param defaultMaxAge max-age used when no entry of maxAgeByType matches the image type.
+ * @param maxAgeByType max-age per content type, e.g. {@code app.images.cache.max-age-by-type[image/png]=7d};
+ *                     a wildcard such as {@code image/*} matches every image subtype.
+ * @param privateCache Whether only the browser (not shared proxies) may keep a copy, true by default
+ *                     since the images belong to medical records.
+ */
+@ConfigurationProperties(prefix = "app.images.cache")
+public record ImageCacheProperties(
+    @DefaultValue("1h") Duration defaultMaxAge,
+    @DefaultValue Map<String, Duration> maxAgeByType,
+    @DefaultValue("true") boolean privateCache
+) {
+
+    /**
+     * @param contentType The stored type of the image, may be null.
+     * @return The Cache-Control header value for this type.
+     */
+    public CacheControl cacheControlFor(String contentType) {
+        CacheControl cacheControl = CacheControl.maxAge(maxAgeFor(contentType));
+        return privateCache ? cacheControl.cachePrivate() : cacheControl.cachePublic();
+    }
+
+    private Duration maxAgeFor(String contentType) {
+        if (contentType == null) {
+            return defaultMaxAge;
+        }
+        MediaType mediaType = MediaType.parseMediaType(contentType);
+        Duration exact = maxAgeByType.get(mediaType.getType() + "/" + mediaType.getSubtype());
+        if (exact != null) {
+            return exact;
+        }
+        Duration wildcard = maxAgeByType.get(mediaType.getType() + "/*");
+        return wildcard != null ? wildcard : defaultMaxAge;
+    }
+}
@@ -0,0 +1,28 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Page sizes used by the cursor-paginated list endpoints.
+ * @param defaultSize Number of items returned when the client does not ask for a size.
+ * @param maxSize Upper bound applied to any requested size.
+ */
+@ConfigurationProperties(prefix = "app.pagination")
+public record PaginationProperties(
+    @DefaultValue("50") int defaultSize,
+    @DefaultValue("500") int maxSize
+) {
+
+    /**
+     * Resolves the page size to use for a request.
+     * @param requestedSize The size asked by the client, may be null.
+     * @return The default size when none is given, otherwise the requested size clamped to [1, maxSize].
+     */
+    public int resolve(Integer requestedSize) {
+        if (requestedSize == null) {
+            return Math.min(defaultSize, maxSize);
+        }
+        return Math.max(1, Math.min(requestedSize, maxSize));
+    }
+}
@@ -0,0 +1,18 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Bounds of the in-memory cache of PatientDTOs served by GET /patients/{id} and /patients/search.
+ * @param maxSize Number of patients kept; the least recently and frequently used are evicted beyond it.
+ * @param ttl Time after which an entry is read again from the database, a backstop for the changes
+ *            that bypass the services (SQL run by hand, another instance of the application).
+ */
+@ConfigurationProperties(prefix = "app.patients.cache")
+public record PatientCacheProperties(
+    @DefaultValue("10000") long maxSize,
+    @DefaultValue("5m") Duration ttl
+) {}
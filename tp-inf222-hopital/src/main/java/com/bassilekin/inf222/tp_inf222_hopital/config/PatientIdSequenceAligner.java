@@ -0,0 +1,66 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Moves the patients sequence past the existing IDs before the application serves requests.
+ * Patients used to get their ID from an IDENTITY column: on an existing database the sequence
+ * created by Hibernate starts at 1 and would hand out IDs already taken.
+ * Only for the schemas generated by ddl-auto: with Flyway, V1__baseline places the sequence.
+ */
+@Component
+@ConditionalOnProperty(name = "spring.flyway.enabled", havingValue = "false")
+public class PatientIdSequenceAligner implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(PatientIdSequenceAligner.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManagerFactory entityManagerFactory;
+
+    public PatientIdSequenceAligner(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        Dialect dialect = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect();
+        boolean postgresql = dialect instanceof PostgreSQLDialect;
+        long next = nextValue(postgresql);
+        Long maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM PATIENTS", Long.class);
+        // The pooled optimizer uses the block (next - allocationSize, next]: nothing to do when it is past maxId
+        if (next - Patients.ID_ALLOCATION_SIZE >= maxId) {
+            return;
+        }
+        long restart = maxId + Patients.ID_ALLOCATION_SIZE;
+        if (postgresql) {
+            jdbcTemplate.queryForObject("SELECT setval(?, ?, false)", Long.class, Patients.ID_SEQUENCE, restart);
+        } else {
+            jdbcTemplate.execute("ALTER SEQUENCE " + Patients.ID_SEQUENCE + " RESTART WITH " + restart);
+        }
+        logger.info("Sequence {} moved from {} to {} past the existing patient IDs", Patients.ID_SEQUENCE, next, restart);
+    }
+
+    // The value the next nextval will return, read without consuming one
+    private long nextValue(boolean postgresql) {
+        if (postgresql) {
+            return jdbcTemplate.queryForObject("SELECT CASE WHEN is_called THEN last_value + " + Patients.ID_ALLOCATION_SIZE
+                    + " ELSE last_value END FROM " + Patients.ID_SEQUENCE, Long.class);
+        }
+        // H2, the other database this application runs on (tests)
+        return jdbcTemplate.queryForObject("SELECT BASE_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE UPPER(SEQUENCE_NAME) = UPPER(?)",
+                Long.class, Patients.ID_SEQUENCE);
+    }
+}
@@ -0,0 +1,185 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Bulkhead in front of the controllers: each class of endpoint gets its own semaphore, so slow image
+ * reads cannot take the permits of quick patient lookups, and the requests in flight never outnumber
+ * the database connections (see BulkheadProperties). A request that gets no permit within max-wait is
+ * answered 503 with Retry-After instead of queuing in the connection pool. The free permits and the
+ * rejections of each class are published as app.bulkhead.permits and app.bulkhead.rejected. With virtual threads
+ * (spring.threads.virtual.enabled) this is what bounds the concurrency, since Tomcat no longer does,
+ * hence it is only enabled with them by default.
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.bulkhead", name = "enabled", havingValue = "true")
+public class RequestBulkheadFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestBulkheadFilter.class);
+
+    // Hikari's default, used when the pool size is not configured
+    private static final int DEFAULT_POOL_SIZE = 10;
+    // Connections taken outside the permits: the reads of PatientSearchIndex in their own transaction
+    // (one at a time) and the scheduled reconcile of StatisticsEngine
+    private static final int BACKGROUND_CONNECTIONS = 2;
+
+    enum EndpointClass { CRUD, IMAGES, STATS }
+
+    private final long maxWaitNanos;
+    private final Map<EndpointClass, Semaphore> permits = new EnumMap<>(EndpointClass.class);
+    private final Map<EndpointClass, Counter> rejections = new EnumMap<>(EndpointClass.class);
+
+    public RequestBulkheadFilter(BulkheadProperties properties, WriteBehindProperties writeBehindProperties,
+            DataSource dataSource, MeterRegistry meterRegistry) {
+        int poolSize = poolSize(dataSource);
+        // Each write-behind worker holds a connection while it flushes
+        int reserved = BACKGROUND_CONNECTIONS + (writeBehindProperties.enabled() ? writeBehindProperties.workers() : 0);
+        BulkheadProperties.Limits limits = properties.resolve(poolSize, reserved);
+        if (limits.total() + reserved > poolSize) {
+            logger.warn("Bulkhead limits {} and {} background connections exceed the {} pooled connections", limits, reserved, poolSize);
+        }
+        this.maxWaitNanos = properties.maxWait().toNanos();
+        // Fair: under contention the permits go to the requests that have waited the longest
+        permits.put(EndpointClass.CRUD, new Semaphore(limits.crud(), true));
+        permits.put(EndpointClass.IMAGES, new Semaphore(limits.images(), true));
+        permits.put(EndpointClass.STATS, new Semaphore(limits.stats(), true));
+        permits.forEach((endpointClass, semaphore) -> {
+            String tag = endpointClass.name().toLowerCase(Locale.ROOT);
+            Gauge.builder("app.bulkhead.permits", semaphore, Semaphore::availablePermits)
+                    .description("Permits currently free")
+                    .tag("class", tag)
+                    .register(meterRegistry);
+            rejections.put(endpointClass, Counter.builder("app.bulkhead.rejected")
+                    .description("Requests answered 503 for want of a permit")
+                    .tag("class", tag)
+                    .register(meterRegistry));
+        });
+        logger.info("Request bulkhead limits: {}", limits);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return RequestPaths.withinApplication(request).startsWith("/actuator");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        EndpointClass endpointClass = classify(RequestPaths.withinApplication(request));
+        Semaphore semaphore = permits.get(endpointClass);
+        boolean acquired;
+        try {
+            acquired = semaphore.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            rejections.get(endpointClass).increment();
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Too many concurrent requests");
+            return;
+        }
+        boolean releaseNow = true;
+        try {
+            filterChain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                // Streamed responses (NDJSON export) keep their permit until the response completes
+                request.getAsyncContext().addListener(new ReleasingListener(semaphore));
+                releaseNow = false;
+            }
+        } finally {
+            if (releaseNow) {
+                semaphore.release();
+            }
+        }
+    }
+
+    static EndpointClass classify(String path) {
+        if (path.startsWith("/images")) {
+            return EndpointClass.IMAGES;
+        }
+        if (path.endsWith("/stats")) {
+            return EndpointClass.STATS;
+        }
+        return EndpointClass.CRUD;
+    }
+
+    private static int poolSize(DataSource dataSource) {
+        try {
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                // Unset (-1) until the pool starts, then Hikari's default
+                int maximumPoolSize = dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+                return maximumPoolSize > 0 ? maximumPoolSize : DEFAULT_POOL_SIZE;
+            }
+        } catch (SQLException e) {
+            logger.debug("Could not read the connection pool size", e);
+        }
+        return DEFAULT_POOL_SIZE;
+    }
+
+    private static final class ReleasingListener implements AsyncListener {
+
+        private final Semaphore semaphore;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ReleasingListener(Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                semaphore.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Request paths as the filters match them, before the handler mapping has resolved the request.
+ */
+final class RequestPaths {
+
+    private RequestPaths() {
+    }
+
+    // Path inside the application, without the context path (/api)
+    static String withinApplication(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+}
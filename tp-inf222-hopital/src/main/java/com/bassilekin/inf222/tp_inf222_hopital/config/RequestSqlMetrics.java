@@ -0,0 +1,133 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Records, for each HTTP request, the number of SQL statements it prepared and the time spent executing them:
+ * app.requests.sql.statements and app.requests.sql.time, tagged with the method and the URI template like
+ * http.server.requests. An endpoint whose statement count grows with the size of its result is an N+1.
+ * The counts come from a Hibernate session listener, so they include the statements of every session the
+ * request opens but not the JDBC calls made without Hibernate. The body of an asynchronous response (the
+ * NDJSON export) is written on another thread and is not counted.
+ */
+@Component
+public class RequestSqlMetrics implements AsyncHandlerInterceptor, WebMvcConfigurer, HibernatePropertiesCustomizer {
+
+    // Statements of the request handled by the current thread, null outside a request
+    private static final ThreadLocal<Tally> CURRENT = new ThreadLocal<>();
+
+    private final MeterRegistry meterRegistry;
+
+    public RequestSqlMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        // Hibernate creates one listener per session
+        hibernateProperties.put(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER, SessionListener.class.getName());
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        CURRENT.set(new Tally());
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        CURRENT.remove();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Tally tally = CURRENT.get();
+        CURRENT.remove();
+        if (tally == null) {
+            return;
+        }
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern != null ? pattern.toString() : "UNKNOWN";
+        DistributionSummary.builder("app.requests.sql.statements")
+                .description("SQL statements prepared by a request")
+                .tags("method", request.getMethod(), "uri", uri)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(tally.statements);
+        Timer.builder("app.requests.sql.time")
+                .description("Time a request spent executing SQL statements")
+                .tags("method", request.getMethod(), "uri", uri)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(tally.executionNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static final class Tally {
+        long statements;
+        long executionNanos;
+    }
+
+    /**
+     * Adds the statements of a session to the request of the thread that runs it.
+     */
+    public static class SessionListener extends BaseSessionEventListener {
+
+        private long executionStart;
+
+        @Override
+        public void jdbcPrepareStatementStart() {
+            Tally tally = CURRENT.get();
+            if (tally != null) {
+                tally.statements++;
+            }
+        }
+
+        @Override
+        public void jdbcExecuteStatementStart() {
+            executionStart = System.nanoTime();
+        }
+
+        @Override
+        public void jdbcExecuteStatementEnd() {
+            addExecutionTime();
+        }
+
+        @Override
+        public void jdbcExecuteBatchStart() {
+            executionStart = System.nanoTime();
+        }
+
+        @Override
+        public void jdbcExecuteBatchEnd() {
+            addExecutionTime();
+        }
+
+        private void addExecutionTime() {
+            Tally tally = CURRENT.get();
+            if (tally != null) {
+                tally.executionNanos += System.nanoTime() - executionStart;
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.PathContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.filter.ServerHttpObservationFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import com.bassilekin.inf222.tp_inf222_hopital.events.ImageCountChangedEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.events.MaladieChangedEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.events.PatientChangedEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.events.StatisticsReconciledEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.services.StatisticsEngine;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the hot read endpoints from their serialized JSON: the UTF-8 bytes written by the controller are
+ * kept, with a gzip variant for the larger ones, and sent as-is to the next requests with a content-hash
+ * ETag, so a hit runs no query, no conversion and no Jackson serialization (a matching If-None-Match is
+ * answered 304). Each route depends on namespaces of data whose version is part of the cache key; the
+ * versions are bumped by the events of the service write methods once their transaction has committed,
+ * and the responses of older versions are never read again. Sizes and age: app.responses.cache.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1) // Before RequestBulkheadFilter: a hit does not need a database connection
+@ConditionalOnProperty(prefix = "app.responses.cache", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class ResponseCacheFilter extends OncePerRequestFilter {
+
+    enum Namespace { PATIENTS, MALADIES, IMAGES }
+
+    private record Route(PathPattern pattern, Set<Namespace> namespaces) {
+    }
+
+    // GET endpoints served from the cache, with the data their response is built from
+    private static final List<Route> ROUTES = List.of(
+        route("/maladies", Namespace.MALADIES),
+        route("/maladies/stats", Namespace.MALADIES, Namespace.PATIENTS, Namespace.IMAGES),
+        route("/maladies/{maladieId}/patients", Namespace.MALADIES, Namespace.PATIENTS),
+        route("/patients/stats", Namespace.PATIENTS)
+    );
+
+    // Set by this filter on every response it sends, so not kept with the controller's headers
+    private static final Set<String> MANAGED_HEADERS = Set.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_LENGTH,
+            HttpHeaders.CONTENT_ENCODING, HttpHeaders.ETAG, HttpHeaders.VARY, HttpHeaders.CACHE_CONTROL);
+
+    private static final String GZIP_ETAG_SUFFIX = "-gzip";
+
+    private record CachedResponse(String contentType, Map<String, List<String>> headers, byte[] body, byte[] gzipBody, String etag) {
+
+        int weight() {
+            return body.length + (gzipBody != null ? gzipBody.length : 0);
+        }
+    }
+
+    private final long gzipMinSize;
+    private final Cache<String, CachedResponse> cache;
+    private final Map<Namespace, AtomicLong> versions = new EnumMap<>(Namespace.class);
+
+    public ResponseCacheFilter(ResponseCacheProperties properties, MeterRegistry meterRegistry) {
+        this.gzipMinSize = properties.gzipMinSize().toBytes();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.maxSize().toBytes())
+                .weigher((String key, CachedResponse response) -> key.length() + response.weight())
+                .expireAfterWrite(properties.ttl())
+                .recordStats()
+                .build();
+        for (Namespace namespace : Namespace.values()) {
+            versions.put(namespace, new AtomicLong());
+        }
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "responses");
+    }
+
+    // After the listeners of StatisticsEngine: a request that sees the new version must also see the new
+    // counters, or it would cache the old ones under the new key
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(StatisticsEngine.LISTENER_ORDER + 1)
+    public void onPatientChanged(PatientChangedEvent event) {
+        versions.get(Namespace.PATIENTS).incrementAndGet();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(StatisticsEngine.LISTENER_ORDER + 1)
+    public void onMaladieChanged(MaladieChangedEvent event) {
+        versions.get(Namespace.MALADIES).incrementAndGet();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(StatisticsEngine.LISTENER_ORDER + 1)
+    public void onImageCountChanged(ImageCountChangedEvent event) {
+        versions.get(Namespace.IMAGES).incrementAndGet();
+    }
+
+    // The counters were rebuilt from the database without any write event: the statistics cached from the
+    // old ones, under any namespace version, are not read again
+    @EventListener
+    public void onStatisticsReconciled(StatisticsReconciledEvent event) {
+        versions.values().forEach(AtomicLong::incrementAndGet);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Route route = HttpMethod.GET.matches(request.getMethod()) ? findRoute(request) : null;
+        if (route == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        // A hit never reaches the handler mapping: the route gives http.server.requests its uri tag
+        ServerHttpObservationFilter.findObservationContext(request)
+                .ifPresent(context -> context.setPathPattern(route.pattern().getPatternString()));
+        // Read before the handler runs: a write committed meanwhile bumps the version, so what the handler
+        // read is stored under a key no later request asks for
+        String key = key(request, route);
+        CachedResponse cached = cache.getIfPresent(key);
+        if (cached != null) {
+            response.setContentType(cached.contentType());
+            cached.headers().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+            send(cached, request, response);
+            return;
+        }
+
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+        boolean cacheable = false;
+        try {
+            filterChain.doFilter(request, wrapper);
+            cacheable = wrapper.getStatus() == HttpServletResponse.SC_OK && !request.isAsyncStarted() && isJson(wrapper.getContentType());
+        } finally {
+            if (!cacheable) {
+                wrapper.copyBodyToResponse();
+            }
+        }
+        if (!cacheable) {
+            return;
+        }
+        // The controller's status and headers are already on the response, only the body was held back
+        CachedResponse fresh = toCachedResponse(wrapper);
+        cache.put(key, fresh);
+        send(fresh, request, response);
+    }
+
+    private void send(CachedResponse cached, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        // Clients keep the body but revalidate it with If-None-Match
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        boolean gzip = cached.gzipBody() != null && acceptsGzip(request);
+        // A strong ETag identifies the bytes sent: the gzip variant has its own
+        String etag = gzip ? cached.etag() + GZIP_ETAG_SUFFIX : cached.etag();
+        if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+            return;
+        }
+        byte[] body = cached.body();
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            body = cached.gzipBody();
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private CachedResponse toCachedResponse(ContentCachingResponseWrapper wrapper) throws IOException {
+        byte[] body = wrapper.getContentAsByteArray();
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (String name : wrapper.getHeaderNames()) {
+            if (MANAGED_HEADERS.stream().noneMatch(name::equalsIgnoreCase)) {
+                headers.put(name, new ArrayList<>(wrapper.getHeaders(name)));
+            }
+        }
+        byte[] gzipBody = body.length >= gzipMinSize ? gzip(body) : null;
+        return new CachedResponse(wrapper.getContentType(), headers, body,
+                gzipBody != null && gzipBody.length < body.length ? gzipBody : null,
+                DigestUtils.md5DigestAsHex(body));
+    }
+
+    private String key(HttpServletRequest request, Route route) {
+        StringBuilder key = new StringBuilder(RequestPaths.withinApplication(request));
+        if (request.getQueryString() != null) {
+            key.append('?').append(request.getQueryString());
+        }
+        for (Namespace namespace : route.namespaces()) {
+            key.append(' ').append(versions.get(namespace).get());
+        }
+        return key.toString();
+    }
+
+    private static Route findRoute(HttpServletRequest request) {
+        PathContainer path = PathContainer.parsePath(RequestPaths.withinApplication(request));
+        for (Route route : ROUTES) {
+            if (route.pattern().matches(path)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isJson(String contentType) {
+        return contentType != null && MediaType.APPLICATION_JSON.isCompatibleWith(MediaType.parseMediaType(contentType));
+    }
+
+    // gzip listed in Accept-Encoding and not refused with q=0
+    static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            if (parts[0].strip().equalsIgnoreCase("gzip")) {
+                return parts.length < 2 || !parts[1].strip().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(body);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static Route route(String pattern, Namespace... namespaces) {
+        return new Route(PathPatternParser.defaultInstance.parse(pattern), EnumSet.copyOf(List.of(namespaces)));
+    }
+}
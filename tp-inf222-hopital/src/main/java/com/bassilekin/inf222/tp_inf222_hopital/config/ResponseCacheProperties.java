@@ -0,0 +1,23 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Serialized response cache of ResponseCacheFilter.
+ * @param enabled Whether the read endpoints are served from the cache, true by default.
+ * @param maxSize Total size of the cached bodies, gzip variants included; the least used are evicted beyond it.
+ * @param ttl Age after which a response is rebuilt even if no write bumped its version, for the counters
+ *            corrected by the statistics reconciliation and the changes made outside the application.
+ * @param gzipMinSize Bodies from this size on are also kept gzip-compressed, for the clients that accept it.
+ */
+@ConfigurationProperties(prefix = "app.responses.cache")
+public record ResponseCacheProperties(
+    @DefaultValue("true") boolean enabled,
+    @DefaultValue("32MB") DataSize maxSize,
+    @DefaultValue("5m") Duration ttl,
+    @DefaultValue("1KB") DataSize gzipMinSize
+) {}
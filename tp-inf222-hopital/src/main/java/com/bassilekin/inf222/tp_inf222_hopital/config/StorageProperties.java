@@ -0,0 +1,18 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import java.nio.file.Path;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Location and limits of the image blob store.
+ * @param root Directory holding the content-addressed image files.
+ * @param maxSize Largest content accepted by an upload, enforced while the bytes are streamed.
+ */
+@ConfigurationProperties(prefix = "app.storage")
+public record StorageProperties(
+    @DefaultValue("data/images") Path root,
+    @DefaultValue("512MB") DataSize maxSize
+) {}
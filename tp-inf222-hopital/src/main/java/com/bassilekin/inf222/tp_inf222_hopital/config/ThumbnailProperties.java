@@ -0,0 +1,15 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Resized derivatives offered by GET /images/{id}?size=.
+ * @param sizes Allowed sizes, in pixels, of the longest side of a thumbnail.
+ */
+@ConfigurationProperties(prefix = "app.images.thumbnails")
+public record ThumbnailProperties(
+    @DefaultValue({"128", "512"}) List<Integer> sizes
+) {}
@@ -0,0 +1,25 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Write-behind queue of PatientWriteBehind, for the PATCH /patients/{id} requests sent with
+ * {@code Prefer: respond-async}.
+ * @param enabled Whether such requests are queued, false by default: they are then applied synchronously.
+ * @param capacity Number of patients with a pending patch beyond which new patches are refused with 429.
+ * @param workers Number of threads flushing the queue; a patient is always flushed by the same one.
+ * @param batchSize Maximum number of patients updated in one transaction.
+ * @param linger How long a worker waits after the first pending patch, so that the following ones are
+ *               merged into it or flushed in the same transaction.
+ */
+@ConfigurationProperties(prefix = "app.patients.write-behind")
+public record WriteBehindProperties(
+    @DefaultValue("false") boolean enabled,
+    @DefaultValue("10000") int capacity,
+    @DefaultValue("2") int workers,
+    @DefaultValue("200") int batchSize,
+    @DefaultValue("50ms") Duration linger
+) {}
@@ -1,7 +1,14 @@
 package com.bassilekin.inf222.tp_inf222_hopital.controllers;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -10,12 +17,19 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import com.bassilekin.inf222.tp_inf222_hopital.config.ImageCacheProperties;
 import com.bassilekin.inf222.tp_inf222_hopital.entities.Images;
+import com.bassilekin.inf222.tp_inf222_hopital.services.BlobTooLargeException;
+import com.bassilekin.inf222.tp_inf222_hopital.services.CorruptImageException;
 import com.bassilekin.inf222.tp_inf222_hopital.services.ImageStorageService;
+import com.bassilekin.inf222.tp_inf222_hopital.services.UnsupportedImageFormatException;
 
 import org.slf4j.Logger;
 
@@ -28,13 +42,18 @@ private static final Logger logger = LoggerFactory.getLogger(ImageController.cla
     @Autowired
     private ImageStorageService storageService;
 
-    @PostMapping("/upload")
+    @Autowired
+    private ImageCacheProperties cacheProperties;
+
+    @PostMapping(path = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<String> uploadImage(
             @RequestParam("file") MultipartFile file,
             @RequestParam("maladieId") Long maladieId) { // Add this parameter
         try {
             storageService.store(file, maladieId); // Pass the ID to the service
             return ResponseEntity.ok("Image uploaded successfully: " + file.getOriginalFilename());
+        } catch (BlobTooLargeException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(e.getMessage());
         } catch (Exception e) {
             logger.error("Failed to upload image: {}", file.getOriginalFilename(), e);
             return ResponseEntity.status(HttpStatus.EXPECTATION_FAILED)
@@ -42,13 +61,101 @@ private static final Logger logger = LoggerFactory.getLogger(ImageController.cla
         }
     }    
 
+    // Raw upload: the request body is the image itself and is streamed straight to the blob
+    // store, without the multipart parsing and temporary file of the endpoint above
+    @PostMapping(path = "/upload", consumes = {"image/*", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<String> uploadImageStream(
+            InputStream body,
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+            @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength,
+            @RequestParam("name") String name,
+            @RequestParam("maladieId") Long maladieId) {
+        if (contentLength != null && contentLength > storageService.getMaxUploadSize()) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                    .body("Could not upload the image: " + name + ". Error: the file exceeds "
+                            + storageService.getMaxUploadSize() + " bytes");
+        }
+        try {
+            storageService.store(body, name, contentType, maladieId);
+            return ResponseEntity.ok("Image uploaded successfully: " + name);
+        } catch (BlobTooLargeException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Failed to upload image: {}", name, e);
+            return ResponseEntity.status(HttpStatus.EXPECTATION_FAILED)
+                    .body("Could not upload the image: " + name + ". Error: " + e.getMessage());
+        }
+    }
+
+    // The strong ETag is the content hash: the same bytes always get the same validator.
+    // If-None-Match / If-Modified-Since are answered with 304 without reading the content, and
+    // Range requests get 206 Partial Content (handled by Spring for Resource bodies).
+    // With ?size=, a resized preview (generated on first request) is served instead of the original,
+    // under its own ETag; it is looked up first, so that ETag is only sent along with a preview.
     @GetMapping("/{id}")
-    public ResponseEntity<byte[]> getImage(@PathVariable Long id) {
+    public ResponseEntity<Resource> getImage(
+            @PathVariable Long id,
+            @RequestParam(required = false) Integer size,
+            WebRequest request) throws IOException {
         Images image = storageService.getImage(id);
-        
+        if (size != null && !storageService.isThumbnailSize(size)) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!storageService.hasContent(image)) {
+            // Stored before the blob store and its bytes could not be moved there
+            return ResponseEntity.status(HttpStatus.GONE).build();
+        }
+
+        Resource content;
+        String contentType = image.getType();
+        String etag = image.getContentHash();
+        if (size == null) {
+            content = storageService.loadContent(image);
+        } else {
+            try {
+                content = storageService.loadThumbnail(image, size);
+                contentType = storageService.thumbnailContentType(image);
+                etag = etag + "-" + size;
+            } catch (UnsupportedImageFormatException e) {
+                // Not decodable by the JDK codecs (e.g. DICOM): the client is sent to the original
+                return ResponseEntity.status(HttpStatus.SEE_OTHER)
+                        .location(ServletUriComponentsBuilder.fromCurrentRequest().replaceQueryParam("size").build().toUri())
+                        .build();
+            } catch (CorruptImageException e) {
+                return ResponseEntity.unprocessableEntity().build();
+            }
+        }
+
+        long lastModified = image.getUploadedAt() != null ? image.getUploadedAt().toEpochMilli() : -1;
+        if (request.checkNotModified(etag, lastModified)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .cacheControl(cacheProperties.cacheControlFor(image.getType()))
+                    .build();
+        }
+
+        storageService.recordBytesServed(servedBytes(request.getHeader(HttpHeaders.RANGE), content));
+
+        // ETag and Last-Modified were already added by checkNotModified.
+        // The file is streamed from the blob store instead of being copied into a byte[]
         return ResponseEntity.ok()
-                .contentType(MediaType.valueOf(image.getType()))
-                .body(image.getData());
+                .contentType(MediaType.valueOf(contentType))
+                .cacheControl(cacheProperties.cacheControlFor(image.getType()))
+                .body(content);
+    }
+
+    // Length of the body Spring writes for the resource: all of it, or the requested ranges
+    private static long servedBytes(String range, Resource content) throws IOException {
+        if (range == null) {
+            return content.contentLength();
+        }
+        try {
+            return HttpRange.toResourceRegions(HttpRange.parseRanges(range), content).stream()
+                    .mapToLong(ResourceRegion::getCount)
+                    .sum();
+        } catch (IllegalArgumentException e) {
+            // Unsatisfiable range: answered 416 without content
+            return 0;
+        }
     }
 
     @DeleteMapping("/{id}")
@@ -5,7 +5,11 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.CursorPage;
 import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieMatchDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladiePatch;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieSummaryDTO;
 import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientDTO;
 import com.bassilekin.inf222.tp_inf222_hopital.services.MaladieService;
 
@@ -17,11 +21,14 @@ import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -43,10 +50,11 @@ public class MaladiesController {
         return new ResponseEntity<>(createdMaladie, HttpStatus.CREATED);
     }
     
+    // The version is sent as ETag, for the If-Match of PUT and PATCH
     @GetMapping("/{id}")
     public ResponseEntity<MaladieDTO> getMaladieID(@PathVariable long id) {
         Optional<MaladieDTO> maladie = this.maladieService.getMaladieById(id);
-        return maladie.map(ResponseEntity::ok)
+        return maladie.map(MaladiesController::withETag)
                        .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
@@ -58,10 +66,15 @@ public class MaladiesController {
 
     @PutMapping("/{id}")
     @ResponseStatus(value = HttpStatus.OK)
-    public ResponseEntity<MaladieDTO> updateMaladie(@PathVariable Long id, @RequestBody MaladieDTO maladie) {
-        return maladieService.updateMaladie(id, maladie)
-                            .map(ResponseEntity::ok)
-                            .orElseGet(() -> ResponseEntity.notFound().build());
+    public ResponseEntity<MaladieDTO> updateMaladie(@PathVariable Long id, @RequestBody MaladieDTO maladie,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        try {
+            return maladieService.updateMaladie(id, maladie, VersionTags.expectedVersion(ifMatch))
+                                .map(MaladiesController::withETag)
+                                .orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build(); // Changed since If-Match
+        }
     }
 
     
@@ -70,9 +83,12 @@ public class MaladiesController {
     @ResponseStatus(value = HttpStatus.OK)
     public ResponseEntity<List<MaladieDTO>> getAllMaladies(
             @RequestParam(required = false) Optional<String> type,
-            @RequestParam(required = false) Optional<String> nom) {
+            @RequestParam(required = false) Optional<String> nom,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
 
         List<MaladieDTO> maladies;
+        String nextCursor = null;
 
         if (type.isPresent() && nom.isPresent()) {
             Optional<MaladieDTO> foundMaladie = maladieService.getMaladieByTypeAndName(type.get(), nom.get());
@@ -89,10 +105,37 @@ public class MaladiesController {
             Optional<MaladieDTO> foundMaladie = maladieService.getMaladieByName(nom.get());
             maladies = foundMaladie.map(List::of).orElse(List.of());
         } else {
-            // Si aucun paramètre n'est présent, retourne toutes les maladies
-            maladies = maladieService.getAllMaladies();
+            // Si aucun filtre n'est présent, retourne une page de maladies (pagination par curseur)
+            try {
+                CursorPage<MaladieDTO> page = maladieService.getMaladiesPage(cursor, size);
+                maladies = page.items();
+                nextCursor = page.nextCursor();
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (nextCursor != null) {
+            response.header(CursorPage.NEXT_CURSOR_HEADER, nextCursor);
+        }
+        return response.body(maladies);
+    }
+
+    // Unfiltered page of maladies as (id, nom) summaries, read without loading the entities
+    @GetMapping(params = {"view=summary", "!type", "!nom"})
+    public ResponseEntity<List<MaladieSummaryDTO>> getAllMaladieSummaries(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
+        try {
+            CursorPage<MaladieSummaryDTO> page = maladieService.getMaladieSummariesPage(cursor, size);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page.nextCursor() != null) {
+                response.header(CursorPage.NEXT_CURSOR_HEADER, page.nextCursor());
+            }
+            return response.body(page.items());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         }
-        return ResponseEntity.ok(maladies);
     }
 
     @GetMapping("/{maladieId}/patients")
@@ -111,10 +154,25 @@ public class MaladiesController {
 
     @PatchMapping("/{id}")
     @ResponseStatus(value = HttpStatus.OK)
-    public ResponseEntity<MaladieDTO> patchMaladie(@PathVariable Long id, @RequestBody Map<String, Object> updates) {
-        Optional<MaladieDTO> patchedMaladie = this.maladieService.patchMaladie(id, updates);
-        return patchedMaladie.map(ResponseEntity::ok)
-                            .orElseGet(() -> ResponseEntity.notFound().build());
+    public ResponseEntity<MaladieDTO> patchMaladie(@PathVariable Long id, @RequestBody MaladiePatch patch,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        try {
+            Optional<MaladieDTO> patchedMaladie = this.maladieService.patchMaladie(id, patch, VersionTags.expectedVersion(ifMatch));
+            return patchedMaladie.map(MaladiesController::withETag)
+                                .orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build(); // Changed since If-Match
+        }
+    }
+
+    // Maladies ranked by the symptoms they share with the patient, for a differential diagnosis
+    @GetMapping("/differential")
+    public ResponseEntity<List<MaladieMatchDTO>> getDifferential(
+            @RequestParam Long patientId,
+            @RequestParam(required = false) Integer size) {
+        return maladieService.getDifferentialForPatient(patientId, size)
+                       .map(ResponseEntity::ok)
+                       .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
     @GetMapping("stats")
@@ -122,4 +180,7 @@ public class MaladiesController {
         return maladieService.getMaladiesStats();
     }
 
-}
\ No newline at end of file
+    private static ResponseEntity<MaladieDTO> withETag(MaladieDTO maladie) {
+        return ResponseEntity.ok().eTag(VersionTags.etag(maladie.version())).body(maladie);
+    }
+}
@@ -1,25 +1,51 @@
 package com.bassilekin.inf222.tp_inf222_hopital.controllers;
 
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.BulkImportResultDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.CursorPage;
 import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientCreateUpdateDTO;
 import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientPatch;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientSumDTO;
 import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieDTO; // New import for /maladies endpoint
 import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+import com.bassilekin.inf222.tp_inf222_hopital.services.PatientImportService;
 import com.bassilekin.inf222.tp_inf222_hopital.services.PatientService;
+import com.bassilekin.inf222.tp_inf222_hopital.services.PatientWriteBehind;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import lombok.AllArgsConstructor;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @AllArgsConstructor // Injects PatientService
 @RequestMapping("/patients") // Base path for all patient-related endpoints
 public class PatientController {
 
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    private static final String APPLICATION_MERGE_PATCH_JSON_VALUE = "application/merge-patch+json"; // RFC 7396
+    // RFC 7240 preference asking for the update to be queued
+    private static final String PREFER = "Prefer";
+    private static final String PREFERENCE_APPLIED = "Preference-Applied";
+    private static final String RESPOND_ASYNC = "respond-async";
+
     private final PatientService patientService;
+    private final PatientImportService patientImportService;
+    private final PatientWriteBehind patientWriteBehind;
+    private final ObjectMapper objectMapper;
 
     // CRUD Operations
 
@@ -38,15 +64,34 @@ public class PatientController {
         }
     }
 
+    /**
+     * Creates many patients in one request, e.g. when onboarding a partner clinic.
+     * The body is a JSON array or NDJSON (one patient per line); it is bound row by row while it is
+     * read, so its size is not limited by the heap. Invalid rows are reported and skipped.
+     * @param body The patients, in the PatientCreateUpdateDTO format.
+     * @return ResponseEntity with the BulkImportResultDTO, or HttpStatus.BAD_REQUEST if the body cannot be read.
+     */
+    @PostMapping(path = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE},
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<BulkImportResultDTO> importPatients(InputStream body) {
+        // readValues iterates over the elements of a root-level array as well as over a sequence of root values
+        try (MappingIterator<PatientCreateUpdateDTO> rows = objectMapper.readerFor(PatientCreateUpdateDTO.class).readValues(body)) {
+            return ResponseEntity.ok(patientImportService.importPatients(rows));
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     /**
      * Retrieves a patient by their ID.
      * @param id The ID of the patient.
-     * @return ResponseEntity with PatientDTO if found, or HttpStatus.NOT_FOUND.
+     * @return ResponseEntity with PatientDTO and its version as ETag if found (HttpStatus.NOT_MODIFIED if
+     *         If-None-Match has it), or HttpStatus.NOT_FOUND.
      */
     @GetMapping(path = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<PatientDTO> getPatientById(@PathVariable Long id) {
         return patientService.getPatientById(id)
-                .map(ResponseEntity::ok)
+                .map(PatientController::withETag)
                 .orElse(ResponseEntity.notFound().build());
     }
 
@@ -54,14 +99,25 @@ public class PatientController {
      * Updates an existing patient.
      * @param id The ID of the patient to update.
      * @param patientUpdateDTO The DTO containing updated patient data.
-     * @return ResponseEntity with the updated PatientDTO, or HttpStatus.NOT_FOUND if patient does not exist.
+     * @param ifMatch Optional: the ETag of the version the update applies to.
+     * @return ResponseEntity with the updated PatientDTO and its new ETag, HttpStatus.NOT_FOUND if patient does
+     *         not exist, or HttpStatus.PRECONDITION_FAILED if it changed since the If-Match version or during
+     *         the update.
      */
     @PutMapping(path = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<PatientDTO> updatePatient(@PathVariable Long id, @RequestBody PatientCreateUpdateDTO patientUpdateDTO) {
+    public ResponseEntity<PatientDTO> updatePatient(@PathVariable Long id, @RequestBody PatientCreateUpdateDTO patientUpdateDTO,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         // Change to patientUpdateDTO as input. Service will convert to entity.
-        return patientService.updatePatient(id, patientUpdateDTO)
-                .map(ResponseEntity::ok) // Map the Optional<PatientDTO> to ResponseEntity
-                .orElse(ResponseEntity.notFound().build());
+        try {
+            patientWriteBehind.flushPending(id); // A patch queued before this update must not override it
+            return patientService.updatePatient(id, patientUpdateDTO, VersionTags.expectedVersion(ifMatch))
+                    .map(PatientController::withETag) // Map the Optional<PatientDTO> to ResponseEntity
+                    .orElse(ResponseEntity.notFound().build());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build(); // Unknown maladie IDs
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+        }
     }
 
     /**
@@ -78,13 +134,70 @@ public class PatientController {
     // Search Operations
 
     /**
-     * Retrieves all patients.
-     * @return ResponseEntity with a list of PatientDTOs.
+     * Retrieves one page of patients, ordered by ID.
+     * The token of the next page is sent in the X-Next-Cursor header, which is absent on the last page.
+     * @param cursor Optional: continuation token returned with the previous page.
+     * @param size Optional: number of patients per page, capped by app.pagination.max-size.
+     * @return ResponseEntity with a list of PatientDTOs, or HttpStatus.BAD_REQUEST if the cursor is invalid.
      */
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<List<PatientDTO>> getAllPatients() {
-        List<PatientDTO> patients = patientService.getAllPatients();
-        return ResponseEntity.ok(patients);
+    public ResponseEntity<List<PatientDTO>> getAllPatients(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
+        try {
+            CursorPage<PatientDTO> page = patientService.getPatientsPage(cursor, size);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page.nextCursor() != null) {
+                response.header(CursorPage.NEXT_CURSOR_HEADER, page.nextCursor());
+            }
+            return response.body(page.items());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Same page as getAllPatients with ?view=summary, as PatientSumDTOs read without loading the entities.
+     * @param cursor Optional: continuation token returned with the previous page, of either view.
+     * @param size Optional: number of patients per page, capped by app.pagination.max-size.
+     * @return ResponseEntity with a list of PatientSumDTOs, or HttpStatus.BAD_REQUEST if the cursor is invalid.
+     */
+    @GetMapping(params = "view=summary", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<PatientSumDTO>> getAllPatientSummaries(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
+        try {
+            CursorPage<PatientSumDTO> page = patientService.getPatientSummariesPage(cursor, size);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page.nextCursor() != null) {
+                response.header(CursorPage.NEXT_CURSOR_HEADER, page.nextCursor());
+            }
+            return response.body(page.items());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Exports the whole patient registry as newline-delimited JSON (one PatientDTO per line).
+     * The response is streamed while the patients are read, so it starts immediately and
+     * does not depend on the size of the table.
+     * @return ResponseEntity streaming application/x-ndjson.
+     */
+    @GetMapping(path = "/export", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportPatients() {
+        ObjectWriter writer = objectMapper.writerFor(PatientDTO.class);
+        StreamingResponseBody body = outputStream -> patientService.exportPatients(patient -> {
+            try {
+                outputStream.write(writer.writeValueAsBytes(patient));
+                outputStream.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok()
+                .contentType(MediaType.valueOf(APPLICATION_NDJSON_VALUE))
+                .body(body);
     }
 
     /**
@@ -113,6 +226,24 @@ public class PatientController {
         return ResponseEntity.badRequest().build();
     }
 
+    /**
+     * Full-text search over the name, first name, symptoms and treatments of the patients.
+     * Accents and case are ignored and typos tolerated; results are ranked by relevance.
+     * @param q The words to search for, all of which must match.
+     * @param size Optional: maximum number of patients, capped by app.pagination.max-size.
+     * @return ResponseEntity with the matching PatientDTOs, or HttpStatus.BAD_REQUEST if q has no word.
+     */
+    @GetMapping(path = "/search/text", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<PatientDTO>> searchPatientsByText(
+            @RequestParam String q,
+            @RequestParam(required = false) Integer size) {
+        try {
+            return ResponseEntity.ok(patientService.searchText(q, size));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     /**
      * Retrieves a list of patients filtered by name.
      * @param nom The name of the patient.
@@ -135,6 +266,16 @@ public class PatientController {
         return ResponseEntity.ok(patients);
     }
 
+    /**
+     * Same as getPatientsByStade with ?view=summary, as PatientSumDTOs.
+     * @param stade The medical stage of the patient.
+     * @return ResponseEntity with a list of PatientSumDTOs.
+     */
+    @GetMapping(path = "/by-stade", params = "view=summary", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<PatientSumDTO>> getPatientSummariesByStade(@RequestParam stadePatient stade) {
+        return ResponseEntity.ok(patientService.findSummariesByStade(stade));
+    }
+
     /**
      * Retrieves a list of patients filtered by a treatment they are undergoing.
      * @param traitement The treatment name or partial name.
@@ -163,6 +304,21 @@ public class PatientController {
         return ResponseEntity.ok(patients);
     }
 
+    /**
+     * Same as filterPatients with ?view=summary, as PatientSumDTOs ordered by ID.
+     * @param nom The patient's name.
+     * @param stade The patient's medical stage.
+     * @param traitement The treatment name.
+     * @return ResponseEntity with a list of PatientSumDTOs.
+     */
+    @GetMapping(path = "/filter", params = "view=summary", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<PatientSumDTO>> filterPatientSummaries(
+            @RequestParam(required = false) String nom,
+            @RequestParam(required = false) stadePatient stade,
+            @RequestParam(required = false) String traitement) {
+        return ResponseEntity.ok(patientService.findSummariesByNomAndStadeAndTraitement(nom, stade, traitement));
+    }
+
     // Advanced Operations
 
     /**
@@ -177,17 +333,45 @@ public class PatientController {
 
     /**
      * Partially updates a patient's information.
+     * With {@code Prefer: respond-async} and app.patients.write-behind.enabled, the update is queued
+     * (see PatientWriteBehind) and applied shortly after the response, unless it has an If-Match header.
      * @param id The ID of the patient to update.
-     * @param updates A map of fields to update and their new values.
-     * @return ResponseEntity with the updated PatientDTO, or HttpStatus.NOT_FOUND.
+     * @param updates The fields to update and their new values, as a JSON Merge Patch; a value of the
+     *                wrong type is answered HttpStatus.BAD_REQUEST before the patient is read.
+     * @param prefer Optional: the Prefer header of the request.
+     * @param ifMatch Optional: the ETag of the version the update applies to.
+     * @return ResponseEntity with the updated PatientDTO and its ETag, HttpStatus.NOT_FOUND, or
+     *         HttpStatus.PRECONDITION_FAILED as for PUT; HttpStatus.ACCEPTED once queued, or
+     *         HttpStatus.TOO_MANY_REQUESTS if the queue is full, HttpStatus.SERVICE_UNAVAILABLE if it is closed.
      */
-    @PatchMapping(path = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    @PatchMapping(path = "/{id}", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_MERGE_PATCH_JSON_VALUE},
+            produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<PatientDTO> partialUpdatePatient(
             @PathVariable Long id,
-            @RequestBody Map<String, Object> updates) {
-        return patientService.partialUpdatePatient(id, updates)
-                .map(ResponseEntity::ok)
-                .orElse(ResponseEntity.notFound().build());
+            @RequestBody PatientPatch updates,
+            @RequestHeader(value = PREFER, required = false) String prefer,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        try {
+            if (ifMatch == null && patientWriteBehind.isEnabled() && prefersAsync(prefer)) {
+                try {
+                    if (!patientWriteBehind.submit(id, updates)) {
+                        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1").build();
+                    }
+                } catch (RejectedExecutionException e) {
+                    // Shutting down: another instance can take it
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+                }
+                return ResponseEntity.accepted().header(PREFERENCE_APPLIED, RESPOND_ASYNC).build();
+            }
+            patientWriteBehind.flushPending(id);
+            return patientService.partialUpdatePatient(id, updates, VersionTags.expectedVersion(ifMatch))
+                    .map(PatientController::withETag)
+                    .orElse(ResponseEntity.notFound().build());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build(); // Unknown maladie IDs
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+        }
     }
 
     /**
@@ -202,4 +386,19 @@ public class PatientController {
                 .orElse(ResponseEntity.notFound().build());
     }
 
-}
\ No newline at end of file
+    private static ResponseEntity<PatientDTO> withETag(PatientDTO patient) {
+        return ResponseEntity.ok().eTag(VersionTags.etag(patient.version())).body(patient);
+    }
+
+    private static boolean prefersAsync(String prefer) {
+        if (prefer == null) {
+            return false;
+        }
+        for (String preference : prefer.split(",")) {
+            if (preference.strip().equalsIgnoreCase(RESPOND_ASYNC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,39 @@
+package com.bassilekin.inf222.tp_inf222_hopital.controllers;
+
+/**
+ * ETags of the patients and maladies: the @Version of the entity, quoted. A client sends it back in
+ * If-Match to update only the version it read, and gets 412 if the entity changed since.
+ */
+final class VersionTags {
+
+    // Matches no version: an If-Match that is not one of these ETags always fails
+    private static final long NO_VERSION = -1;
+
+    private VersionTags() {
+    }
+
+    static String etag(Long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * @param ifMatch The If-Match header of the request, if any.
+     * @return The version the write requires, or null for an unconditional write (no header or "*").
+     *         A weak or foreign ETag, or a list of several, never matches: If-Match compares strongly and
+     *         the services check a single version.
+     */
+    static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.strip().equals("*")) {
+            return null;
+        }
+        String etag = ifMatch.strip();
+        if (etag.length() < 3 || etag.charAt(0) != '"' || etag.charAt(etag.length() - 1) != '"') {
+            return NO_VERSION;
+        }
+        try {
+            return Long.valueOf(etag.substring(1, etag.length() - 1));
+        } catch (NumberFormatException e) {
+            return NO_VERSION;
+        }
+    }
+}
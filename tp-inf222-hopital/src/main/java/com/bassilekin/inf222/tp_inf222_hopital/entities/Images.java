@@ -1,12 +1,13 @@
 package com.bassilekin.inf222.tp_inf222_hopital.entities;
 
+import java.time.Instant;
+
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
-import jakarta.persistence.Lob;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
 import lombok.Data;
@@ -27,8 +28,14 @@ public class Images {
 
     private String type;
 
-    @Lob
-    private byte[] data;
+    // SHA-256 of the content, key of the file in the blob store (the bytes are not kept in the table)
+    @Column(length = 64)
+    private String contentHash;
+
+    private Long contentLength;
+
+    // Date of the upload, sent as Last-Modified on downloads
+    private Instant uploadedAt;
 
     @ManyToOne
     @JoinColumn(name = "maladies_id", nullable = false)
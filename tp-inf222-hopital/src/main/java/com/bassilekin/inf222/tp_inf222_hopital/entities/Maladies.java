@@ -5,8 +5,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
+
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.ElementCollection;
 import jakarta.persistence.Entity;
@@ -16,6 +21,7 @@ import jakarta.persistence.Id;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.ManyToMany;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -26,14 +32,22 @@ import lombok.ToString;
 @Data // Génère getters/setters/equals/hashCode/toString
 @NoArgsConstructor // Constructeur vide (requis pour JPA)
 @AllArgsConstructor // Constructeur avec tous les champs (optionnel)
-@EqualsAndHashCode(exclude = {"patientsAffecter", "images"})
+@EqualsAndHashCode(exclude = {"patientsAffecter", "images", "version"})
 @Table(name = "MALADIES")
+@Cacheable // Reference table read on every patient write: kept in the second-level cache
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "maladies")
 public class Maladies {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    // Optimistic locking, sent as the ETag of the maladie (see Patients.version)
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Long version;
+
     @Column(nullable = false, length = 100)
     private String nom;
 
@@ -41,9 +55,11 @@ public class Maladies {
     private String type;
 
     @ElementCollection
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "maladies-symptomes")
     private Set<String> symptomes;
 
     @ElementCollection
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "maladies-traitements")
     private Set<String> traitements;
     
 
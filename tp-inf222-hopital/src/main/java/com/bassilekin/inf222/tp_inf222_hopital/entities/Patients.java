@@ -3,6 +3,7 @@ package com.bassilekin.inf222.tp_inf222_hopital.entities;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 
@@ -20,7 +21,9 @@ import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.JoinTable;
 import jakarta.persistence.ManyToMany;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -31,15 +34,28 @@ import lombok.ToString;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@EqualsAndHashCode(callSuper = true, exclude = {"setMaladies"})// Very important for equality with parent fields
+@EqualsAndHashCode(callSuper = true, exclude = {"setMaladies", "version"})// Very important for equality with parent fields
 @ToString(callSuper = true)
 @Table(name = "PATIENTS")
 public class Patients extends Personnes { // Assuming Personnes is also @SuperBuilder and @Data/@Getter/@Setter
 
+    // Sequence read by blocks of ID_ALLOCATION_SIZE (pooled optimizer): Hibernate knows the IDs before
+    // inserting, so the inserts of the bulk import are sent in JDBC batches, which IDENTITY prevents
+    public static final String ID_SEQUENCE = "patients_seq";
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_SEQUENCE)
+    @SequenceGenerator(name = ID_SEQUENCE, sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
+    // Optimistic locking: incremented by every update, sent as the ETag of the patient. 0 for the rows
+    // that existed before the column
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Long version;
+
     @Column(length = 2)
     private String groupeSanguin;
 
@@ -0,0 +1,9 @@
+package com.bassilekin.inf222.tp_inf222_hopital.events;
+
+/**
+ * Published when an image is attached to or removed from a maladie.
+ * @param maladieId The maladie the image belongs to.
+ * @param delta +1 for a stored image, -1 for a deleted one.
+ */
+public record ImageCountChangedEvent(Long maladieId, int delta) {
+}
@@ -0,0 +1,49 @@
+package com.bassilekin.inf222.tp_inf222_hopital.events;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+
+/**
+ * Published by the maladie write methods, with the state of the maladie before and after the change.
+ * @param before The state before the change, null when the maladie was created.
+ * @param after The state after the change, null when the maladie was deleted.
+ */
+public record MaladieChangedEvent(MaladieState before, MaladieState after) {
+
+    public static MaladieChangedEvent created(Maladies maladie) {
+        return new MaladieChangedEvent(null, MaladieState.of(maladie));
+    }
+
+    public static MaladieChangedEvent updated(MaladieState before, Maladies maladie) {
+        return new MaladieChangedEvent(before, MaladieState.of(maladie));
+    }
+
+    public static MaladieChangedEvent deleted(MaladieState before) {
+        return new MaladieChangedEvent(before, null);
+    }
+
+    /**
+     * The attributes of a maladie the statistics depend on, detached from the entity.
+     */
+    public record MaladieState(Long id, String nom, String type, Set<String> symptomes, Set<String> traitements) {
+
+        // Must be called inside the transaction: reads the lazy collections of the maladie
+        public static MaladieState of(Maladies maladie) {
+            return new MaladieState(
+                maladie.getId(),
+                maladie.getNom(),
+                maladie.getType(),
+                copyOf(maladie.getSymptomes()),
+                copyOf(maladie.getTraitements())
+            );
+        }
+
+        // Set.copyOf rejects nulls, which the element collections may hold
+        private static Set<String> copyOf(Set<String> values) {
+            return values != null ? Collections.unmodifiableSet(new HashSet<>(values)) : Set.of();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.bassilekin.inf222.tp_inf222_hopital.events;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+
+/**
+ * Published by the patient write methods, with the state of the patient before and after the change.
+ * @param before The state before the change, null when the patient was created.
+ * @param after The state after the change, null when the patient was deleted.
+ */
+public record PatientChangedEvent(PatientState before, PatientState after) {
+
+    public static PatientChangedEvent created(Patients patient) {
+        return new PatientChangedEvent(null, PatientState.of(patient));
+    }
+
+    public static PatientChangedEvent updated(PatientState before, PatientState after) {
+        return new PatientChangedEvent(before, after);
+    }
+
+    public static PatientChangedEvent deleted(PatientState before) {
+        return new PatientChangedEvent(before, null);
+    }
+
+    /**
+     * The attributes of a patient the statistics depend on, detached from the entity.
+     */
+    public record PatientState(Long id, stadePatient stade, boolean hasSymptomes, boolean underTreatment, Set<Long> maladieIds) {
+
+        // Must be called inside the transaction: reads the lazy collections of the patient
+        public static PatientState of(Patients patient) {
+            return of(patient, patient.getSetMaladies() != null
+                    ? patient.getSetMaladies().stream().map(Maladies::getId).collect(Collectors.toSet())
+                    : Set.of());
+        }
+
+        // For callers that know the linked maladie IDs and must not initialize setMaladies
+        public static PatientState of(Patients patient, Set<Long> maladieIds) {
+            return new PatientState(
+                patient.getId(),
+                patient.getStade(),
+                patient.getSymptomesManifester() != null && !patient.getSymptomesManifester().isEmpty(),
+                patient.getTraitementSuivie() != null && !patient.getTraitementSuivie().isEmpty(),
+                Set.copyOf(maladieIds)
+            );
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.bassilekin.inf222.tp_inf222_hopital.events;
+
+/**
+ * Published when a reconciliation of StatisticsEngine found the in-memory counters different from the
+ * database and replaced them, e.g. after rows were changed without going through the write methods.
+ */
+public record StatisticsReconciledEvent() {
+}
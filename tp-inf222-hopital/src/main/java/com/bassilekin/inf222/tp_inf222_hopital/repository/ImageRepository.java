@@ -1,11 +1,33 @@
 package com.bassilekin.inf222.tp_inf222_hopital.repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
 import com.bassilekin.inf222.tp_inf222_hopital.entities.Images;
 
+import jakarta.persistence.QueryHint;
+
 public interface ImageRepository extends JpaRepository<Images, Long> {
     // This interface will automatically provide CRUD operations for Images entity
-    // No additional methods are needed unless specific queries are required
+
+    // Blobs referenced by the images of a maladie, read before deleting them in bulk
+    @Query("SELECT DISTINCT i.contentHash FROM Images i WHERE i.maladies.id = :maladieId")
+    List<String> findContentHashesByMaladieId(@Param("maladieId") Long maladieId);
+
+    @Query("SELECT DISTINCT i.contentHash FROM Images i WHERE i.contentHash IN :hashes")
+    Set<String> findContentHashesIn(@Param("hashes") Collection<String> hashes);
+
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "IMAGES"))
+    @Query(value = "DELETE FROM IMAGES WHERE maladies_id = :maladieId", nativeQuery = true)
+    int deleteAllByMaladieId(@Param("maladieId") Long maladieId);
 
 }
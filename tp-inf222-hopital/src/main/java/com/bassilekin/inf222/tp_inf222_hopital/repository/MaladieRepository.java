@@ -1,20 +1,68 @@
 package com.bassilekin.inf222.tp_inf222_hopital.repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieSummaryDTO;
 import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
 
+import jakarta.persistence.QueryHint;
+
 
 public interface MaladieRepository extends JpaRepository<Maladies, Long> {
 
+    // Lookups on the reference catalog go through the query cache; their results are
+    // invalidated by Hibernate whenever the MALADIES table is written
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
     Optional<Maladies> findByNom(String name);
 
+    // IDs of the whole catalog, to validate the maladieIds of an import without loading the entities
+    @Query("SELECT m.id FROM Maladies m")
+    List<Long> findAllIds();
+
+    // Which of the given IDs exist, without loading the entities
+    @Query("SELECT m.id FROM Maladies m WHERE m.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    // --- Set-based deletion of a maladie (see MaladieService.deleteMaladieID) ---
+    // Each statement declares the table it writes, so Hibernate only invalidates the cache regions
+    // and cached queries that depend on it
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "Maladies_symptomes"))
+    @Query(value = "DELETE FROM Maladies_symptomes WHERE Maladies_id = :id", nativeQuery = true)
+    int deleteSymptomesByMaladieId(@Param("id") Long id);
+
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "Maladies_traitements"))
+    @Query(value = "DELETE FROM Maladies_traitements WHERE Maladies_id = :id", nativeQuery = true)
+    int deleteTraitementsByMaladieId(@Param("id") Long id);
+
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "MALADIES"))
+    @Query(value = "DELETE FROM MALADIES WHERE id = :id", nativeQuery = true)
+    int deleteRowById(@Param("id") Long id);
+
+    // Keyset (seek) pagination over the primary key
+    List<Maladies> findByIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+
+    // Same page as (id, nom) records, without loading the entities nor their collections
+    @Query("SELECT new com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieSummaryDTO(m.id, m.nom) " +
+           "FROM Maladies m WHERE m.id > :afterId ORDER BY m.id")
+    List<MaladieSummaryDTO> findSummariesByIdGreaterThan(@Param("afterId") Long afterId, Limit limit);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
     List<Maladies> findByType(String type);
 
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
     List<Maladies> findByTypeAndNom(String type, String nom);
 
     // 1. Count of Diseases by Type
@@ -43,9 +91,20 @@ public interface MaladieRepository extends JpaRepository<Maladies, Long> {
 
     // 6. Count patients affected per disease
     // Joins Maladies with Patients through the join table and counts the patients for each disease.
-    @Query("SELECT m, COUNT(p) FROM Maladies m JOIN m.patientsAffecter p GROUP BY m")
+    // Returns [id, count] rows: grouping on the entity would load every Maladies just to read its name.
+    @Query("SELECT m.id, COUNT(p) FROM Maladies m JOIN m.patientsAffecter p GROUP BY m.id")
     List<Object[]> countPatientsPerDisease();
 
+    // --- Scalar rows used to rebuild the in-memory statistics ---
+    @Query("SELECT m.id, m.nom, m.type FROM Maladies m")
+    List<Object[]> findAllIdNomType();
+
+    @Query("SELECT m.id, s FROM Maladies m JOIN m.symptomes s")
+    List<Object[]> findAllSymptomeRows();
+
+    @Query("SELECT m.id, t FROM Maladies m JOIN m.traitements t")
+    List<Object[]> findAllTraitementRows();
+
     // 7. Count of diseases that have at least one image associated
     // Checks if the 'images' collection for a disease is not empty.
     @Query("SELECT COUNT(m) FROM Maladies m JOIN m.images i WHERE i IS NOT NULL")
@@ -1,22 +1,91 @@
 package com.bassilekin.inf222.tp_inf222_hopital.repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import org.hibernate.jpa.HibernateHints;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
 import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
 
+import jakarta.persistence.QueryHint;
+
 @Repository
 public interface PatientRepository extends JpaRepository<Patients, Long> {
 
 
     List<Patients> findByNom(String nom); 
 
+    // Keyset (seek) pagination: the primary key index positions the scan right after the
+    // last id of the previous page, so a deep page costs the same as the first one.
+    List<Patients> findByIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+
+    // --- Fetch plan of a page of patients ---
+    // Each query initializes one collection of the page's patients already in the persistence context, so
+    // building the PatientDTO page costs four SELECTs whatever its size. The collections are not fetched by
+    // the page query: with a LIMIT, Hibernate would paginate the joined rows in memory, and joining the three
+    // collections in a single query would multiply the rows.
+    @EntityGraph(attributePaths = "setMaladies")
+    @Query("SELECT p FROM Patients p WHERE p.id IN :ids")
+    List<Patients> fetchMaladiesOf(@Param("ids") Collection<Long> ids);
+
+    @Query("SELECT DISTINCT p FROM Patients p LEFT JOIN FETCH p.symptomesManifester WHERE p.id IN :ids")
+    List<Patients> fetchSymptomesManifesterOf(@Param("ids") Collection<Long> ids);
+
+    @Query("SELECT DISTINCT p FROM Patients p LEFT JOIN FETCH p.traitementSuivie WHERE p.id IN :ids")
+    List<Patients> fetchTraitementSuivieOf(@Param("ids") Collection<Long> ids);
+
+    // Server-side cursor for the NDJSON export: the driver fetches rows by chunks of the
+    // fetch size instead of materializing the whole table (must run inside a transaction)
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT p FROM Patients p ORDER BY p.id")
+    Stream<Patients> streamAll();
+
+    // --- Patient <-> maladie links, edited through the join table only ---
+    // Updating the links this way never loads Patients.setMaladies nor Maladies.patientsAffecter.
+    // The native spaces limit the cache invalidation to what depends on patient_maladie, instead of
+    // the whole second-level cache as for any native statement.
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "patient_maladie"))
+    @Query(value = "SELECT maladie_id FROM patient_maladie WHERE patient_id = :patientId", nativeQuery = true)
+    List<Long> findMaladieIdsByPatientId(@Param("patientId") Long patientId);
+
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "patient_maladie"))
+    @Query(value = "DELETE FROM patient_maladie WHERE patient_id = :patientId AND maladie_id IN (:maladieIds)", nativeQuery = true)
+    int unlinkMaladies(@Param("patientId") Long patientId, @Param("maladieIds") Collection<Long> maladieIds);
+
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "patient_maladie"))
+    @Query(value = "INSERT INTO patient_maladie (patient_id, maladie_id) SELECT :patientId, m.id FROM MALADIES m WHERE m.id IN (:maladieIds)", nativeQuery = true)
+    int linkMaladies(@Param("patientId") Long patientId, @Param("maladieIds") Collection<Long> maladieIds);
+
+    // Unlinks every patient from a maladie about to be deleted
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "patient_maladie"))
+    @Query(value = "DELETE FROM patient_maladie WHERE maladie_id = :maladieId", nativeQuery = true)
+    int unlinkAllFromMaladie(@Param("maladieId") Long maladieId);
+
+    // The PatientDTO of a patient lists the nom of its maladies: renaming or deleting one of them is a new
+    // version of the patient, so its ETag changes. Run before unlinkAllFromMaladie
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "PATIENTS"))
+    @Query(value = "UPDATE PATIENTS SET version = version + 1 WHERE id IN (SELECT patient_id FROM patient_maladie WHERE maladie_id = :maladieId)", nativeQuery = true)
+    int incrementVersionOfPatientsOf(@Param("maladieId") Long maladieId);
+
     Optional<Patients> findByEmail(String email); 
 
     Optional<Patients> findByTelephone(int telephone);
@@ -38,6 +107,32 @@ public interface PatientRepository extends JpaRepository<Patients, Long> {
         @Param("stade") stadePatient stade,
         @Param("traitement") String traitement);
 
+    // --- Summaries (PatientSumDTO) ---
+    // Constructor expressions select the columns straight into records: no entity is instantiated,
+    // put in the persistence context nor snapshotted for dirty checking
+    String SUMMARY_ROW = "new com.bassilekin.inf222.tp_inf222_hopital.repository.PatientSummaryRow("
+            + "p.id, p.nom, p.prenom, p.telephone, p.stade, p.groupeSanguin)";
+
+    @Query("SELECT " + SUMMARY_ROW + " FROM Patients p WHERE p.id > :afterId ORDER BY p.id")
+    List<PatientSummaryRow> findSummariesByIdGreaterThan(@Param("afterId") Long afterId, Limit limit);
+
+    @Query("SELECT " + SUMMARY_ROW + " FROM Patients p WHERE p.stade = :stade ORDER BY p.id")
+    List<PatientSummaryRow> findSummariesByStade(@Param("stade") stadePatient stade);
+
+    @Query("SELECT " + SUMMARY_ROW + " FROM Patients p WHERE " +
+           "(:nom IS NULL OR p.nom LIKE %:nom%) AND " +
+           "(:stade IS NULL OR p.stade = :stade) AND " +
+           "(:traitement IS NULL OR EXISTS (SELECT t FROM p.traitementSuivie t WHERE t LIKE %:traitement%)) " +
+           "ORDER BY p.id")
+    List<PatientSummaryRow> findSummariesByNomAndStadeAndTraitementSuivieContaining(
+        @Param("nom") String nom,
+        @Param("stade") stadePatient stade,
+        @Param("traitement") String traitement);
+
+    // [patient id, traitement] rows of the given patients, to complete their summaries
+    @Query("SELECT p.id, t FROM Patients p JOIN p.traitementSuivie t WHERE p.id IN :ids")
+    List<Object[]> findTraitementRowsByPatientIds(@Param("ids") Collection<Long> ids);
+
     // --- Statistics Queries ---
     @Query("SELECT p.stade, COUNT(p) FROM Patients p GROUP BY p.stade")
     List<Object[]> countPatientsByStade();
@@ -0,0 +1,15 @@
+package com.bassilekin.inf222.tp_inf222_hopital.repository;
+
+import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+
+/**
+ * Columns of a patient needed by PatientSumDTO, selected by the constructor expressions of PatientRepository.
+ * The treatments are read by a second query (PatientRepository.findTraitementRowsByPatientIds).
+ */
+public record PatientSummaryRow(
+    Long id,
+    String nom,
+    String prenom,
+    int telephone,
+    stadePatient stade,
+    String groupeSanguin) {}
@@ -0,0 +1,73 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Content-addressed storage for binary payloads (image files).
+ * Blobs are keyed by the SHA-256 digest of their content, so storing the same bytes twice
+ * keeps a single copy. Callers keep the hash and delete blobs with deleteUnreferenced, which
+ * leaves alone the blobs still held by a put whose reference is not recorded yet.
+ */
+public interface BlobStore {
+
+    /**
+     * Stores the content read from the stream, without buffering it in memory, and holds the blob until
+     * {@link #release(String)}: the caller records its hash meanwhile (e.g. commits the row using it).
+     * @param content The bytes to store; the stream is read to the end but not closed.
+     * @return The hash and size of the stored content.
+     * @throws BlobTooLargeException if the content exceeds the store's maximum size.
+     */
+    StoredBlob put(InputStream content) throws IOException;
+
+    /**
+     * @return The largest content, in bytes, accepted by {@link #put(InputStream)}.
+     */
+    long getMaxSize();
+
+    /**
+     * @param hash The key returned by {@link #put(InputStream)}.
+     * @return A streamable resource over the content.
+     * @throws java.io.FileNotFoundException if no blob exists for this hash.
+     */
+    Resource get(String hash) throws IOException;
+
+    boolean exists(String hash);
+
+    /**
+     * Returns a content derived from a blob (e.g. a thumbnail), computing and storing it on
+     * first access. Derivatives are kept next to their blob and removed with it.
+     * @param hash The key of the source blob.
+     * @param variant Name of the derivative, made of lowercase letters, digits and dashes.
+     * @param generator Writes the derivative from the source content; called only when the
+     *                  derivative does not exist yet.
+     */
+    Resource getOrCreateDerivative(String hash, String variant, DerivativeGenerator generator) throws IOException;
+
+    /**
+     * Drops one hold taken by {@link #put(InputStream)}.
+     */
+    void release(String hash);
+
+    /**
+     * Removes the blobs and their derivatives, except those a put still holds or something references.
+     * Serialized with the puts of the same hashes: an identical upload either holds its blob before the
+     * check, or stores the content again after it is removed.
+     * @param referenced Returns the given hashes still in use, e.g. by committed rows; called once, last.
+     * @return The hashes removed (or already absent).
+     */
+    List<String> deleteUnreferenced(Collection<String> hashes, Function<Collection<String>, Set<String>> referenced)
+            throws IOException;
+
+    @FunctionalInterface
+    interface DerivativeGenerator {
+        void generate(InputStream source, OutputStream target) throws IOException;
+    }
+}
@@ -0,0 +1,14 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link BlobStore} when the content exceeds the configured maximum size.
+ * The limit is checked while the stream is read, so nothing is kept of the rejected content.
+ */
+public class BlobTooLargeException extends IOException {
+
+    public BlobTooLargeException(long maxSize) {
+        super("Content exceeds the maximum size of " + maxSize + " bytes");
+    }
+}
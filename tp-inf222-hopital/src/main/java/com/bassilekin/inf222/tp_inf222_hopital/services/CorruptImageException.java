@@ -0,0 +1,18 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a JDK image codec recognizes the format of a stored image but fails to decode its
+ * content (truncated or damaged file), so no derivative can be built.
+ */
+public class CorruptImageException extends IOException {
+
+    public CorruptImageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public CorruptImageException(String message) {
+        super(message);
+    }
+}
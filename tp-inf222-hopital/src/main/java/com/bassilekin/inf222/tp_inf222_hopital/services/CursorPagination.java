@@ -0,0 +1,57 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.CursorPage;
+
+/**
+ * Helpers for the keyset-paginated endpoints.
+ * A continuation token is opaque to clients: it carries the last id returned, scoped to a
+ * resource so that a patient cursor cannot be replayed against the maladies list.
+ */
+final class CursorPagination {
+
+    private CursorPagination() {
+    }
+
+    /**
+     * Builds a page from rows fetched with a limit of {@code size + 1}: the extra row only
+     * tells that a next page exists and is not returned.
+     */
+    static <E, T> CursorPage<T> toPage(String scope, List<E> rows, int size,
+                                       Function<E, Long> idOf, Function<E, T> mapper) {
+        boolean hasNext = rows.size() > size;
+        List<E> pageRows = hasNext ? rows.subList(0, size) : rows;
+        List<T> items = pageRows.stream().map(mapper).toList();
+        String nextCursor = hasNext ? encode(scope, idOf.apply(pageRows.get(size - 1))) : null;
+        return new CursorPage<>(items, nextCursor);
+    }
+
+    static String encode(String scope, Long lastId) {
+        String raw = scope + ":" + lastId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return The id after which the next page starts, 0 when no cursor is given.
+     * @throws IllegalArgumentException if the token is malformed or belongs to another scope.
+     */
+    static long decode(String scope, String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return 0L;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String prefix = scope + ":";
+            if (!raw.startsWith(prefix)) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            return Long.parseLong(raw.substring(prefix.length()));
+        } catch (IllegalArgumentException e) { // Also covers NumberFormatException
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+}
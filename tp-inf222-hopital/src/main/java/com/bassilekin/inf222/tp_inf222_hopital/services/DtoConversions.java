@@ -0,0 +1,158 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.util.HashSet;
+import java.util.List;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieSummaryDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientCreateUpdateDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+
+/**
+ * Conversions between the entities and the DTOs of the API, shared by PatientService and MaladieService.
+ * They only read the entities (loading their lazy collections inside the caller's transaction) and need
+ * no repository, so the benchmarks call them directly.
+ */
+final class DtoConversions {
+
+    private DtoConversions() {
+    }
+
+    /**
+     * Converts a Patients entity to a PatientDTO for API response.
+     * Includes associated maladies as MaladieSummaryDTOs.
+     * @param patient The Patients entity to convert.
+     * @return The corresponding PatientDTO.
+     */
+    static PatientDTO toPatientDto(Patients patient) {
+        if (patient == null) {
+            return null;
+        }
+
+        // Force initialization of the lazy collection before conversion
+        // This ensures the maladies are loaded within the transaction context
+        if (patient.getSetMaladies() != null) {
+            patient.getSetMaladies().size(); // Triggers lazy loading
+        }
+
+        List<MaladieSummaryDTO> maladiesAffecteesDto = patient.getSetMaladies() != null ?
+                patient.getSetMaladies().stream()
+                    .map(DtoConversions::toMaladieSummaryDto)
+                    .toList() // Unmodifiable: the DTO may be shared through PatientCache
+                : List.of();
+
+        return new PatientDTO(
+            patient.getId(),
+            patient.getNom(),
+            patient.getPrenom(),
+            patient.getNum_urgence(), // Corrected field name based on your entity
+            patient.getTelephone(),
+            patient.getEmail(),
+            patient.getGroupeSanguin(),
+            patient.getStade(),
+            patient.getSymptomesManifester() != null ? List.copyOf(patient.getSymptomesManifester()) : List.of(),
+            patient.getTraitementSuivie() != null ? List.copyOf(patient.getTraitementSuivie()) : List.of(),
+            maladiesAffecteesDto,
+            patient.getVersion()
+        );
+    }
+
+    /**
+     * Converts a Patients entity nested in a maladie response: its maladies are left out to prevent
+     * infinite recursion.
+     */
+    static PatientDTO toPatientDtoWithoutMaladies(Patients patient) {
+        if (patient == null) {
+            return null;
+        }
+        return new PatientDTO(
+            patient.getId(),
+            patient.getNom(),
+            patient.getPrenom(),
+            patient.getNum_urgence(),
+            patient.getTelephone(),
+            patient.getEmail(),
+            patient.getGroupeSanguin(),
+            patient.getStade(),
+            patient.getSymptomesManifester() != null ? List.copyOf(patient.getSymptomesManifester()) : List.of(),
+            patient.getTraitementSuivie() != null ? List.copyOf(patient.getTraitementSuivie()) : List.of(),
+            List.of(),
+            patient.getVersion()
+        );
+    }
+
+    /**
+     * Converts PatientCreateUpdateDTO to Patients entity.
+     * Note: ManyToMany relationships (maladies) are NOT handled here.
+     * They are managed after fetching full Maladie entities.
+     * @param patientCreateUpdateDTO The input DTO to convert.
+     * @return The corresponding Patients entity.
+     */
+    static Patients toPatientEntity(PatientCreateUpdateDTO patientCreateUpdateDTO) {
+        if (patientCreateUpdateDTO == null) {
+            return null;
+        }
+
+        Patients patient = new Patients();
+        // Set Personnes fields (inherited)
+        patient.setNom(patientCreateUpdateDTO.nom());
+        patient.setPrenom(patientCreateUpdateDTO.prenom());
+        patient.setNum_urgence(patientCreateUpdateDTO.numUrgence());
+        patient.setTelephone(patientCreateUpdateDTO.telephone());
+        patient.setEmail(patientCreateUpdateDTO.email());
+
+        // Set Patients specific fields
+        patient.setGroupeSanguin(patientCreateUpdateDTO.groupeSanguin());
+        patient.setStade(patientCreateUpdateDTO.stade());
+        patient.setSymptomesManifester(patientCreateUpdateDTO.symptomesManifester() != null ? new HashSet<>(patientCreateUpdateDTO.symptomesManifester()) : new HashSet<>());
+        patient.setTraitementSuivie(patientCreateUpdateDTO.traitementSuivie() != null ? new HashSet<>(patientCreateUpdateDTO.traitementSuivie()) : new HashSet<>());
+
+        // Initialize ManyToMany set to avoid NPEs later
+        patient.setSetMaladies(new HashSet<>());
+
+        // Dates will be set by @PrePersist / @PreUpdate in the entity/superclass
+        return patient;
+    }
+
+    // Converts Maladie entity to MaladieDTO for API response, without its patients
+    static MaladieDTO toMaladieDto(Maladies maladie) {
+        if (maladie == null) {
+            return null;
+        }
+        return new MaladieDTO(
+            maladie.getId(),
+            maladie.getNom(),
+            maladie.getType(),
+            maladie.getSymptomes() != null ? List.copyOf(maladie.getSymptomes()) : List.of(),
+            maladie.getTraitements() != null ? List.copyOf(maladie.getTraitements()) : List.of(),
+            maladie.getVersion()
+        );
+    }
+
+    // Converts MaladieDTO (input) to Maladie entity for persistence
+    static Maladies toMaladieEntity(MaladieDTO maladieDTO) {
+        if (maladieDTO == null) {
+            return null;
+        }
+        Maladies maladie = new Maladies();
+        maladie.setId(maladieDTO.id()); // For update scenarios, ID is present
+        maladie.setNom(maladieDTO.nom());
+        maladie.setType(maladieDTO.type());
+        maladie.setSymptomes(maladieDTO.symptomes() != null ? new HashSet<>(maladieDTO.symptomes()) : new HashSet<>());
+        maladie.setTraitements(maladieDTO.traitements() != null ? new HashSet<>(maladieDTO.traitements()) : new HashSet<>());
+        return maladie;
+    }
+
+    // The maladies listed in a PatientDTO
+    private static MaladieSummaryDTO toMaladieSummaryDto(Maladies maladie) {
+        if (maladie == null) {
+            return null;
+        }
+        return new MaladieSummaryDTO(
+            maladie.getId(),
+            maladie.getNom()
+        );
+    }
+}
@@ -0,0 +1,79 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Builds thumbnails with the JDK codecs only (javax.imageio + Java2D).
+ * Large sources are decoded with source subsampling, so a 20 megapixel scan is never
+ * fully rasterized just to produce a 128px preview.
+ */
+final class ImageResizer {
+
+    private ImageResizer() {
+    }
+
+    /**
+     * Writes a copy of the image whose longest side is at most {@code size} pixels.
+     * @param format ImageIO format name of the output ("png" or "jpeg").
+     * @throws UnsupportedImageFormatException if no JDK codec can decode the source.
+     * @throws CorruptImageException if the codec of the source fails to decode it.
+     */
+    static void resize(InputStream source, OutputStream target, int size, String format) throws IOException {
+        BufferedImage decoded = decode(source, size);
+        double scale = Math.min(1.0, (double) size / Math.max(decoded.getWidth(), decoded.getHeight()));
+        int width = Math.max(1, (int) Math.round(decoded.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(decoded.getHeight() * scale));
+
+        boolean keepAlpha = "png".equals(format);
+        BufferedImage resized = new BufferedImage(width, height,
+                keepAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(decoded, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        if (!ImageIO.write(resized, format, target)) {
+            throw new UnsupportedImageFormatException("No ImageIO writer for format " + format);
+        }
+    }
+
+    private static BufferedImage decode(InputStream source, int size) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(source)) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new UnsupportedImageFormatException("No ImageIO reader for this image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int longestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                // Keep at least twice the target resolution for a smooth downscale
+                int step = Math.max(1, longestSide / (size * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } catch (IIOException | RuntimeException e) {
+                // Some codecs fail on damaged data with unchecked exceptions (e.g. array bounds)
+                throw new CorruptImageException("Could not decode the image with " + reader.getFormatName(), e);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
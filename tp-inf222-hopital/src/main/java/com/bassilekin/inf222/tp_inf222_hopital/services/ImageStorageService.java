@@ -1,22 +1,48 @@
 package com.bassilekin.inf222.tp_inf222_hopital.services;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import com.bassilekin.inf222.tp_inf222_hopital.config.ThumbnailProperties;
 import com.bassilekin.inf222.tp_inf222_hopital.entities.Images;
 import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.bassilekin.inf222.tp_inf222_hopital.events.ImageCountChangedEvent;
 import com.bassilekin.inf222.tp_inf222_hopital.repository.ImageRepository;
 import com.bassilekin.inf222.tp_inf222_hopital.repository.MaladieRepository;
 
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.AllArgsConstructor;
 
 
 @Service
 @AllArgsConstructor
+@Timed(value = "app.service", histogram = true)
 public class ImageStorageService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageStorageService.class);
     
 // In ImageStorageService.java
 
@@ -24,28 +50,196 @@ public class ImageStorageService {
     private final ImageRepository imageRepository; // Assuming you have this
     @Autowired
     private final MaladieRepository maladiesRepository; // You'll likely need a repository for Maladies
+    @Autowired
+    private final BlobStore blobStore; // Holds the image bytes, keyed by content hash
+    @Autowired
+    private final ThumbnailProperties thumbnailProperties;
+    @Autowired
+    private final ApplicationEventPublisher eventPublisher; // Counts of images for the statistics
+    @Autowired
+    private final MeterRegistry meterRegistry; // Image bytes received and served
+
+    // Contents no thumbnail can be built from, so they are decoded once: true if corrupt, false if
+    // in a format without JDK codec. Not a constructor argument (initialized final field)
+    private final Cache<String, Boolean> undecodableContents = Caffeine.newBuilder().maximumSize(10_000).build();
 
+    @Transactional
     public Images store(MultipartFile file, Long maladieId) throws IOException { // Add maladieId parameter
-        // Fetch the Maladies entity
+        // The part is spooled to disk by the servlet container; its stream is read, never getBytes()
+        try (InputStream content = file.getInputStream()) {
+            return store(content, file.getOriginalFilename(), file.getContentType(), maladieId);
+        }
+    }
+
+    /**
+     * Stores an image read from a stream, e.g. the raw request body.
+     * The content is copied to the blob store chunk by chunk while its digest and size are
+     * computed, so the heap used does not depend on the size of the file.
+     * The blob stays held until the row is committed, so a concurrent delete of an image with the same
+     * content cannot remove it; if the row is rolled back, the blob is removed unless another image uses it.
+     * @throws BlobTooLargeException if the content exceeds app.storage.max-size.
+     */
+    @Transactional
+    public Images store(InputStream content, String name, String contentType, Long maladieId) throws IOException {
+        // Fetch the Maladies entity before reading the content
         Maladies maladie = maladiesRepository.findById(maladieId)
                                 .orElseThrow(() -> new RuntimeException("Maladies not found with ID: " + maladieId));
 
+        // The bytes go to the blob store; the table only keeps metadata and the content hash
+        StoredBlob blob = blobStore.put(content);
+        releaseAfterCompletion(blob.hash());
+        imageBytes("in").increment(blob.size());
+
         Images image = new Images();
-        image.setName(file.getOriginalFilename());
-        image.setType(file.getContentType());
-        image.setData(file.getBytes());
+        image.setName(name);
+        image.setType(contentType);
+        image.setContentHash(blob.hash());
+        image.setContentLength(blob.size());
+        image.setUploadedAt(Instant.now());
         image.setMaladies(maladie); // <--- Set the maladies object here!
-        return imageRepository.save(image);
+        Images savedImage = imageRepository.save(image);
+        eventPublisher.publishEvent(new ImageCountChangedEvent(maladieId, 1));
+        return savedImage;
     }
+
+    // Returns the image metadata only; the content is opened with loadContent
     public Images getImage(Long id) {
         return imageRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Image not found with id: " + id));
     }
 
+    // Largest upload accepted, exposed so that callers can reject a declared Content-Length early
+    public long getMaxUploadSize() {
+        return blobStore.getMaxSize();
+    }
+
+    /**
+     * Counts the bytes of image content sent to a client, originals and thumbnails alike.
+     * @param bytes The length of the body, or of the requested ranges.
+     */
+    public void recordBytesServed(long bytes) {
+        imageBytes("out").increment(bytes);
+    }
+
+    private Counter imageBytes(String direction) {
+        return Counter.builder("app.images.bytes")
+                .description("Image content received by uploads and sent by downloads")
+                .baseUnit("bytes")
+                .tag("direction", direction)
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return Whether the content of the image is in the blob store: false for an image stored before
+     *         it whose bytes LegacyImageContentMigration could not move.
+     */
+    public boolean hasContent(Images image) {
+        return image.getContentHash() != null;
+    }
+
+    public Resource loadContent(Images image) throws IOException {
+        if (!hasContent(image)) {
+            throw new FileNotFoundException("No content for image " + image.getId());
+        }
+        return blobStore.get(image.getContentHash());
+    }
+
+    public boolean isThumbnailSize(int size) {
+        return thumbnailProperties.sizes().contains(size);
+    }
+
+    /**
+     * Returns a resized copy of the image, whose longest side is {@code size} pixels.
+     * The derivative is generated with ImageIO on first request, then stored next to the
+     * original in the blob store and served from there.
+     * @throws IllegalArgumentException if the size is not one of app.images.thumbnails.sizes.
+     * A content that failed to decode is remembered, and fails again without being read.
+     * @throws UnsupportedImageFormatException if no JDK codec can decode the image.
+     * @throws CorruptImageException if the codec of the image fails to decode it.
+     */
+    public Resource loadThumbnail(Images image, int size) throws IOException {
+        if (!isThumbnailSize(size)) {
+            throw new IllegalArgumentException("Unsupported thumbnail size " + size + ", allowed: " + thumbnailProperties.sizes());
+        }
+        String hash = image.getContentHash();
+        Boolean corrupt = undecodableContents.getIfPresent(hash);
+        if (corrupt != null) {
+            throw corrupt ? new CorruptImageException("The content of image " + image.getId() + " could not be decoded")
+                    : new UnsupportedImageFormatException("No ImageIO reader for image " + image.getId());
+        }
+        String format = thumbnailFormat(image);
+        try {
+            return blobStore.getOrCreateDerivative(hash, size + "-" + format,
+                    (source, target) -> ImageResizer.resize(source, target, size, format));
+        } catch (UnsupportedImageFormatException | CorruptImageException e) {
+            logger.warn("No thumbnail for image {}: {}", image.getId(), e.getMessage());
+            undecodableContents.put(hash, e instanceof CorruptImageException);
+            throw e;
+        }
+    }
+
+    public String thumbnailContentType(Images image) {
+        return "png".equals(thumbnailFormat(image)) ? MediaType.IMAGE_PNG_VALUE : MediaType.IMAGE_JPEG_VALUE;
+    }
+
+    // PNG keeps the transparency of PNG and GIF sources, every other image becomes a JPEG
+    private static String thumbnailFormat(Images image) {
+        if (image.getType() == null) {
+            return "jpeg";
+        }
+        MediaType type = MediaType.parseMediaType(image.getType());
+        return type.equalsTypeAndSubtype(MediaType.IMAGE_PNG) || type.equalsTypeAndSubtype(MediaType.IMAGE_GIF) ? "png" : "jpeg";
+    }
+
+    // The blob is removed after the commit, once no image uses it anymore (see deleteUnusedBlobsAfterCommit)
+    @Transactional
     public void deleteImage(Long id) {
-        if (!imageRepository.existsById(id)) {
-            throw new RuntimeException("Image not found with id: " + id);
+        Images image = getImage(id);
+        imageRepository.delete(image);
+        eventPublisher.publishEvent(new ImageCountChangedEvent(image.getMaladies().getId(), -1));
+        deleteUnusedBlobsAfterCommit(image.getContentHash() != null ? List.of(image.getContentHash()) : List.of());
+    }
+
+    /**
+     * Removes the blobs of image rows deleted in the current transaction, once it has committed:
+     * a rollback leaves both the rows and their content in place.
+     * Checked after the commit, an identical upload committed meanwhile, or still in progress, keeps the
+     * blob it shares (see BlobStore.deleteUnreferenced).
+     * @param contentHashes The hashes of the deleted images; null for the images without content.
+     */
+    public void deleteUnusedBlobsAfterCommit(Collection<String> contentHashes) {
+        List<String> hashes = contentHashes.stream().filter(Objects::nonNull).distinct().toList();
+        if (hashes.isEmpty()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                deleteBlobsIfUnused(hashes);
+            }
+        });
+    }
+
+    // Drops the hold of put once the row using the blob is committed or rolled back
+    private void releaseAfterCompletion(String hash) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                blobStore.release(hash);
+                if (status != STATUS_COMMITTED) {
+                    deleteBlobsIfUnused(List.of(hash));
+                }
+            }
+        });
+    }
+
+    private void deleteBlobsIfUnused(List<String> hashes) {
+        try {
+            // One query for all the hashes, run under their locks once no identical upload holds them
+            blobStore.deleteUnreferenced(hashes, imageRepository::findContentHashesIn);
+        } catch (IOException e) {
+            // The rows are gone: an orphan file only costs disk space
+            logger.warn("Could not delete blobs {}", hashes, e);
         }
-        imageRepository.deleteById(id);
     }
 }
\ No newline at end of file
@@ -0,0 +1,101 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Moves the content of the images uploaded before the blob store to it, before the application serves
+ * requests. Those rows kept their bytes in the data column of IMAGES (a large object on PostgreSQL)
+ * and have no contentHash; the column is no longer mapped and only exists on databases of that time.
+ * Each row is moved in its own transaction and then loses its data; a row that cannot be moved keeps
+ * it, is retried on the next start, and is answered 410 Gone by GET /images/{id} meanwhile.
+ */
+@Component
+public class LegacyImageContentMigration implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(LegacyImageContentMigration.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate; // Large objects are only readable in a transaction
+    private final BlobStore blobStore;
+
+    public LegacyImageContentMigration(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, BlobStore blobStore) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.blobStore = blobStore;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        String dataType = dataColumnType();
+        if (dataType == null) {
+            return;
+        }
+        List<Long> ids = jdbcTemplate.queryForList("SELECT id FROM IMAGES WHERE contentHash IS NULL AND data IS NOT NULL", Long.class);
+        int moved = 0;
+        for (Long id : ids) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> move(id, dataType));
+                moved++;
+            } catch (RuntimeException e) {
+                logger.warn("Could not move the content of image {} to the blob store", id, e);
+            }
+        }
+        if (!ids.isEmpty()) {
+            logger.info("Moved the content of {} of {} images stored before the blob store", moved, ids.size());
+        }
+    }
+
+    private void move(Long id, String dataType) {
+        boolean largeObject = "oid".equalsIgnoreCase(dataType);
+        boolean bytes = "bytea".equalsIgnoreCase(dataType);
+        StoredBlob blob = jdbcTemplate.query("SELECT data FROM IMAGES WHERE id = ?", rs -> {
+            rs.next();
+            try (InputStream content = bytes ? rs.getBinaryStream(1) : rs.getBlob(1).getBinaryStream()) {
+                return blobStore.put(content);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, id);
+        // Held until the row records the hash; after a rollback the row keeps its data and the blob is
+        // reused by the next attempt
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                blobStore.release(blob.hash());
+            }
+        });
+        if (largeObject) {
+            // Setting the oid to null would leave the large object behind
+            jdbcTemplate.queryForList("SELECT lo_unlink(data) FROM IMAGES WHERE id = ?", Integer.class, id);
+        }
+        jdbcTemplate.update("UPDATE IMAGES SET contentHash = ?, contentLength = ?, data = NULL WHERE id = ?",
+                blob.hash(), blob.size(), id);
+    }
+
+    // Type of IMAGES.data, null if the column does not exist (database created after the blob store)
+    private String dataColumnType() {
+        return jdbcTemplate.execute((ConnectionCallback<String>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            boolean lowerCase = metaData.storesLowerCaseIdentifiers();
+            try (ResultSet columns = metaData.getColumns(null, null, lowerCase ? "images" : "IMAGES", lowerCase ? "data" : "DATA")) {
+                return columns.next() ? columns.getString("TYPE_NAME") : null;
+            }
+        });
+    }
+}
@@ -0,0 +1,214 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import com.bassilekin.inf222.tp_inf222_hopital.config.StorageProperties;
+
+/**
+ * {@link BlobStore} backed by the local filesystem.
+ * A blob lives at {@code <root>/<h0h1>/<h2h3>/<hash>}; the two directory levels keep
+ * directories small. Content is first written to a temporary file while its digest is
+ * computed, then moved atomically to its final path, so readers never see a partial blob.
+ * Derivatives are stored in the same directory as {@code <hash>.<variant>}.
+ * The final step of a put and a delete lock the same stripe of the hash, so they never interleave.
+ */
+@Component
+public class LocalFileSystemBlobStore implements BlobStore {
+
+    private static final String TMP_DIRECTORY = "tmp";
+
+    private static final Pattern VARIANT_PATTERN = Pattern.compile("[a-z0-9-]+");
+
+    // Copy buffer: the only allocation of an upload, whatever the size of the content
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final Path root;
+    private final long maxSize;
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    // Number of puts not released yet, per hash
+    private final Map<String, Integer> holds = new ConcurrentHashMap<>();
+
+    public LocalFileSystemBlobStore(StorageProperties storageProperties) throws IOException {
+        this.root = storageProperties.root().toAbsolutePath().normalize();
+        this.maxSize = storageProperties.maxSize().toBytes();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        Files.createDirectories(root.resolve(TMP_DIRECTORY));
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public StoredBlob put(InputStream content) throws IOException {
+        MessageDigest digest = sha256();
+        Path tmp = Files.createTempFile(root.resolve(TMP_DIRECTORY), "upload-", ".part");
+        try {
+            long size = 0;
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(tmp), digest)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    size += read;
+                    if (size > maxSize) {
+                        throw new BlobTooLargeException(maxSize);
+                    }
+                    out.write(buffer, 0, read);
+                }
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            Path target = pathOf(hash);
+            ReentrantLock lock = lockOf(hash);
+            lock.lock();
+            try {
+                // Identical content already stored: it is kept by the hold
+                if (!Files.exists(target)) {
+                    Files.createDirectories(target.getParent());
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                }
+                holds.merge(hash, 1, Integer::sum);
+            } finally {
+                lock.unlock();
+            }
+            return new StoredBlob(hash, size);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public Resource get(String hash) throws IOException {
+        Path path = pathOf(hash);
+        if (!Files.isRegularFile(path)) {
+            throw new FileNotFoundException("Blob not found: " + hash);
+        }
+        return new FileSystemResource(path);
+    }
+
+    @Override
+    public boolean exists(String hash) {
+        return Files.isRegularFile(pathOf(hash));
+    }
+
+    @Override
+    public Resource getOrCreateDerivative(String hash, String variant, DerivativeGenerator generator) throws IOException {
+        if (!VARIANT_PATTERN.matcher(variant).matches()) {
+            throw new IllegalArgumentException("Invalid derivative name: " + variant);
+        }
+        Path source = pathOf(hash);
+        Path target = source.resolveSibling(hash + "." + variant);
+        if (Files.isRegularFile(target)) {
+            return new FileSystemResource(target);
+        }
+        if (!Files.isRegularFile(source)) {
+            throw new FileNotFoundException("Blob not found: " + hash);
+        }
+
+        // Concurrent first requests may both generate it; the atomic move keeps one complete copy
+        Path tmp = Files.createTempFile(root.resolve(TMP_DIRECTORY), "derivative-", ".part");
+        try {
+            try (InputStream in = Files.newInputStream(source); OutputStream out = Files.newOutputStream(tmp)) {
+                generator.generate(in, out);
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            return new FileSystemResource(target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public void release(String hash) {
+        holds.computeIfPresent(hash, (h, count) -> count > 1 ? count - 1 : null);
+    }
+
+    @Override
+    public List<String> deleteUnreferenced(Collection<String> hashes, Function<Collection<String>, Set<String>> referenced)
+            throws IOException {
+        hashes.forEach(this::pathOf);
+        // Stripes taken in ascending order, so concurrent deletes cannot deadlock
+        SortedSet<Integer> stripes = new TreeSet<>();
+        hashes.forEach(hash -> stripes.add(stripeOf(hash)));
+        List<Integer> locked = List.copyOf(stripes);
+        locked.forEach(stripe -> locks[stripe].lock());
+        try {
+            List<String> candidates = hashes.stream().distinct().filter(hash -> !holds.containsKey(hash)).toList();
+            if (candidates.isEmpty()) {
+                return candidates;
+            }
+            Set<String> used = referenced.apply(candidates);
+            List<String> removed = candidates.stream().filter(hash -> !used.contains(hash)).toList();
+            for (String hash : removed) {
+                delete(hash);
+            }
+            return removed;
+        } finally {
+            locked.forEach(stripe -> locks[stripe].unlock());
+        }
+    }
+
+    private void delete(String hash) throws IOException {
+        Path path = pathOf(hash);
+        Files.deleteIfExists(path);
+        if (Files.isDirectory(path.getParent())) {
+            try (Stream<Path> derivatives = Files.list(path.getParent())) {
+                for (Path derivative : (Iterable<Path>) derivatives.filter(p -> p.getFileName().toString().startsWith(hash + "."))::iterator) {
+                    Files.deleteIfExists(derivative);
+                }
+            }
+        }
+    }
+
+    private ReentrantLock lockOf(String hash) {
+        return locks[stripeOf(hash)];
+    }
+
+    private static int stripeOf(String hash) {
+        return Math.floorMod(hash.hashCode(), LOCK_STRIPES);
+    }
+
+    private Path pathOf(String hash) {
+        if (hash == null || hash.length() != 64 || !hash.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            throw new IllegalArgumentException("Invalid blob hash: " + hash);
+        }
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
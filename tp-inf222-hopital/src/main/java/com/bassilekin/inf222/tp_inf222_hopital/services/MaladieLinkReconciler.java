@@ -0,0 +1,68 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.springframework.stereotype.Component;
+
+import com.bassilekin.inf222.tp_inf222_hopital.repository.MaladieRepository;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.PatientRepository;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Synchronizes the maladies of a patient by editing only the patient_maladie rows that change.
+ * Neither Patients.setMaladies nor the inverse Maladies.patientsAffecter is initialized, so the cost
+ * is a few statements whatever the number of diagnoses. The caller must not have initialized the
+ * setMaladies collection of the patient in the same transaction, or it would be stale.
+ */
+@Component
+@AllArgsConstructor
+class MaladieLinkReconciler {
+
+    private final PatientRepository patientRepository;
+    private final MaladieRepository maladieRepository;
+
+    Set<Long> linkedIds(Long patientId) {
+        return new HashSet<>(patientRepository.findMaladieIdsByPatientId(patientId));
+    }
+
+    /**
+     * Makes the maladies of the patient exactly the requested ones.
+     * @param patientId The patient.
+     * @param linkedIds The IDs currently linked, as returned by linkedIds.
+     * @param requestedIds The IDs the patient must be linked to, null for none.
+     * @return The IDs linked after the call.
+     * @throws IllegalArgumentException if some requested IDs are not maladies.
+     */
+    Set<Long> reconcile(Long patientId, Set<Long> linkedIds, Collection<Long> requestedIds) {
+        Set<Long> requested = new LinkedHashSet<>();
+        if (requestedIds != null) {
+            requestedIds.stream().filter(Objects::nonNull).forEach(requested::add);
+        }
+
+        Set<Long> added = new LinkedHashSet<>(requested);
+        added.removeAll(linkedIds);
+        Set<Long> removed = new HashSet<>(linkedIds);
+        removed.removeAll(requested);
+
+        if (!added.isEmpty()) {
+            List<Long> existing = maladieRepository.findExistingIds(added);
+            if (existing.size() != added.size()) {
+                List<Long> missingIds = added.stream().filter(id -> !existing.contains(id)).toList();
+                throw new IllegalArgumentException("Some maladie IDs do not exist: " + missingIds);
+            }
+        }
+        if (!removed.isEmpty()) {
+            patientRepository.unlinkMaladies(patientId, removed);
+        }
+        if (!added.isEmpty()) {
+            patientRepository.linkMaladies(patientId, added);
+        }
+        return requested;
+    }
+}
@@ -1,64 +1,112 @@
 package com.bassilekin.inf222.tp_inf222_hopital.services;
 
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.CursorPage;
 import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladiePatch;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieMatchDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieSummaryDTO;
 import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.config.PaginationProperties;
 import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
-import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+import com.bassilekin.inf222.tp_inf222_hopital.events.ImageCountChangedEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.events.MaladieChangedEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.events.MaladieChangedEvent.MaladieState;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.ImageRepository;
 import com.bassilekin.inf222.tp_inf222_hopital.repository.MaladieRepository;
 import com.bassilekin.inf222.tp_inf222_hopital.repository.PatientRepository;
 
+import io.micrometer.core.annotation.Timed;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.AllArgsConstructor;
 
 @Service
 @AllArgsConstructor
+@Timed(value = "app.service", histogram = true)
 public class MaladieService {
 
     private final MaladieRepository maladieRepository;
     private final PatientRepository patientRepository; // Assuming you have a PatientService to handle patient-related operations
+    private final PaginationProperties paginationProperties;
+    private final ApplicationEventPublisher eventPublisher; // Changes are published for the in-memory statistics
+    private final StatisticsEngine statisticsEngine;
+    private final ImageRepository imageRepository;
+    private final ImageStorageService imageStorageService;
+    private final SymptomeIndex symptomeIndex;
 
     // --- Service Methods ---
+    // Maladies and their symptomes/traitements live in the second-level cache (READ_WRITE) and findByNom/findByType
+    // results in the query cache. The write methods below go through the entity manager, so Hibernate evicts the
+    // cached entity and collections on flush and invalidates the cached queries on the MALADIES table at commit:
+    // native or bulk statements must declare the tables they write (see deleteMaladieID) for the same to happen.
     @Transactional(readOnly = true)
     public List<MaladieDTO> getAllMaladies() {
         return maladieRepository.findAll().stream()
-                .map(this::convertToDto)
+                .map(DtoConversions::toMaladieDto)
                 .collect(Collectors.toList());
     }
 
+    // Keyset pagination: returns the maladies whose ID follows the cursor, plus the next cursor
+    @Transactional(readOnly = true)
+    public CursorPage<MaladieDTO> getMaladiesPage(String cursor, Integer size) {
+        int pageSize = paginationProperties.resolve(size);
+        long afterId = CursorPagination.decode("maladies", cursor);
+        List<Maladies> maladies = maladieRepository.findByIdGreaterThanOrderByIdAsc(afterId, Limit.of(pageSize + 1));
+        return CursorPagination.toPage("maladies", maladies, pageSize, Maladies::getId, DtoConversions::toMaladieDto);
+    }
+
+    // Same pagination, as (id, nom) summaries read without entities
+    @Transactional(readOnly = true)
+    public CursorPage<MaladieSummaryDTO> getMaladieSummariesPage(String cursor, Integer size) {
+        int pageSize = paginationProperties.resolve(size);
+        long afterId = CursorPagination.decode("maladies", cursor);
+        List<MaladieSummaryDTO> maladies = maladieRepository.findSummariesByIdGreaterThan(afterId, Limit.of(pageSize + 1));
+        return CursorPagination.toPage("maladies", maladies, pageSize, MaladieSummaryDTO::id, summary -> summary);
+    }
+
     @Transactional(readOnly = true)
     public Optional<MaladieDTO> getMaladieById(Long id) {
         return maladieRepository.findById(id)
-                .map(this::convertToDto);
+                .map(DtoConversions::toMaladieDto);
     }
 
     @Transactional
     public MaladieDTO createMaladie(MaladieDTO maladieDTO) {
-        Maladies maladie = convertToEntity(maladieDTO);
+        Maladies maladie = DtoConversions.toMaladieEntity(maladieDTO);
         Maladies savedMaladie = maladieRepository.save(maladie);
-        return convertToDto(savedMaladie);
+        eventPublisher.publishEvent(MaladieChangedEvent.created(savedMaladie));
+        return DtoConversions.toMaladieDto(savedMaladie);
     }
 
+    // expectedVersion: version of the If-Match header, null for an unconditional update; a stale one or a
+    // concurrent update throws ObjectOptimisticLockingFailureException
     @Transactional
-    public Optional<MaladieDTO> updateMaladie(Long id, MaladieDTO updatedMaladieDTO) {
+    public Optional<MaladieDTO> updateMaladie(Long id, MaladieDTO updatedMaladieDTO, Long expectedVersion) {
         return maladieRepository.findById(id).map(existingMaladie -> {
+            OptimisticLocks.checkVersion(Maladies.class, id, expectedVersion, existingMaladie.getVersion());
+            MaladieState before = MaladieState.of(existingMaladie);
             existingMaladie.setNom(updatedMaladieDTO.nom());
             existingMaladie.setType(updatedMaladieDTO.type());
             existingMaladie.setSymptomes(updatedMaladieDTO.symptomes() != null ? new HashSet<>(updatedMaladieDTO.symptomes()) : new HashSet<>());
             existingMaladie.setTraitements(updatedMaladieDTO.traitements() != null ? new HashSet<>(updatedMaladieDTO.traitements()) : new HashSet<>());
-            Maladies savedMaladie = maladieRepository.save(existingMaladie);
-            return convertToDto(savedMaladie);
+            incrementPatientVersionsIfRenamed(before, existingMaladie);
+            Maladies savedMaladie = maladieRepository.saveAndFlush(existingMaladie); // Returns the version written
+            eventPublisher.publishEvent(MaladieChangedEvent.updated(before, savedMaladie));
+            return DtoConversions.toMaladieDto(savedMaladie);
         });
     }
 
@@ -66,64 +114,60 @@ public class MaladieService {
     public void deleteMaladieID(Long id) {
         Maladies maladieToDelete = maladieRepository.findById(id)
             .orElseThrow(() -> new EntityNotFoundException("Maladie with ID " + id + " not found"));
-
-        Set<Patients> affectedPatients = maladieToDelete.getPatientsAffecter(); // This might be lazy-loaded, ensure it's fetched or handle it within the transaction
-
-        for (Patients patient : new HashSet<>(affectedPatients)) { // Create a copy to avoid ConcurrentModificationException
-            patient.getSetMaladies().remove(maladieToDelete);
-            patientRepository.save(patient); // Save the patient to remove the join table entry
+        MaladieState before = MaladieState.of(maladieToDelete);
+        List<String> imageHashes = imageRepository.findContentHashesByMaladieId(id);
+
+        // Set-based deletion: one statement per table, whatever the number of patients and images, and neither
+        // patientsAffecter nor the images are loaded. Each native statement declares its table, so Hibernate evicts
+        // the matching cache regions and invalidates the cached queries on them after commit.
+        patientRepository.incrementVersionOfPatientsOf(id); // Their maladiesAffectees lose this maladie
+        patientRepository.unlinkAllFromMaladie(id);
+        int deletedImages = imageRepository.deleteAllByMaladieId(id);
+        maladieRepository.deleteSymptomesByMaladieId(id);
+        maladieRepository.deleteTraitementsByMaladieId(id);
+        maladieRepository.deleteRowById(id);
+
+        eventPublisher.publishEvent(MaladieChangedEvent.deleted(before));
+        if (deletedImages > 0) {
+            eventPublisher.publishEvent(new ImageCountChangedEvent(id, -deletedImages));
         }
+        imageStorageService.deleteUnusedBlobsAfterCommit(imageHashes);
+    }
 
-        // Step 2: Now it's safe to delete the Maladie itself
-        maladieRepository.delete(maladieToDelete);
+    // The patients list the nom of their maladies: a new nom is a new version (ETag) of each of them
+    private void incrementPatientVersionsIfRenamed(MaladieState before, Maladies maladie) {
+        if (!Objects.equals(before.nom(), maladie.getNom())) {
+            patientRepository.incrementVersionOfPatientsOf(maladie.getId());
+        }
     }
 
     // Additional methods for specific queries
     @Transactional(readOnly = true)
     public Optional<MaladieDTO> getMaladieByName(String name){
 
-        return this.maladieRepository.findByNom(name).map(this::convertToDto);
+        return this.maladieRepository.findByNom(name).map(DtoConversions::toMaladieDto);
     }
 
     @Transactional(readOnly = true) 
     public List<MaladieDTO> getMaladiesByType(String type){
     
         return this.maladieRepository.findByType(type).stream()
-                .map(this::convertToDto)
+                .map(DtoConversions::toMaladieDto)
                 .collect(Collectors.toList());
     }
         
     @Transactional
-    public Optional<MaladieDTO> patchMaladie(Long id, Map<String, Object> updates) {
+    public Optional<MaladieDTO> patchMaladie(Long id, MaladiePatch patch, Long expectedVersion) {
         return maladieRepository.findById(id).map(existingMaladie -> {
-            updates.forEach((key, value) -> {
-                switch (key) {
-                    case "nom":
-                        existingMaladie.setNom((String) value);
-                        break;
-                    case "type":
-                        existingMaladie.setType((String) value);
-                        break;
-                    case "symptomes":
-                        if (value instanceof Collection<?>) {
-                            Set<String> symptomesSet = ((Collection<?>) value).stream()
-                                .map(Object::toString)
-                                .collect(Collectors.toSet());
-                            existingMaladie.setSymptomes(symptomesSet);
-                        }
-                        break;
-                    case "traitements":
-                        if (value instanceof Collection<?>) {
-                            Set<String> traitementsSet = ((Collection<?>) value).stream()
-                                .map(Object::toString)
-                                .collect(Collectors.toSet());
-                            existingMaladie.setTraitements(traitementsSet);
-                        }
-                        break;
-                }
-            });
-            Maladies patchedMaladie = maladieRepository.save(existingMaladie);
-            return convertToDto(patchedMaladie);
+            OptimisticLocks.checkVersion(Maladies.class, id, expectedVersion, existingMaladie.getVersion());
+            MaladieState before = MaladieState.of(existingMaladie);
+            if (!patch.applyTo(existingMaladie)) {
+                return DtoConversions.toMaladieDto(existingMaladie); // Nothing differs: no UPDATE and no event
+            }
+            incrementPatientVersionsIfRenamed(before, existingMaladie);
+            Maladies patchedMaladie = maladieRepository.saveAndFlush(existingMaladie);
+            eventPublisher.publishEvent(MaladieChangedEvent.updated(before, patchedMaladie));
+            return DtoConversions.toMaladieDto(patchedMaladie);
         });
     }
 
@@ -131,43 +175,41 @@ public class MaladieService {
     public Optional<MaladieDTO> getMaladieByTypeAndName(String type, String nom) {
         return maladieRepository.findByTypeAndNom(type, nom).stream()
                 .findFirst()
-                .map(this::convertToDto);
+                .map(DtoConversions::toMaladieDto);
     }   
 
     // Method to get various statistics about diseases
-    @Transactional(readOnly = true)
+    // Served from the in-memory counters of StatisticsEngine: no query runs, so no transaction is opened
+    @Transactional(propagation = Propagation.SUPPORTS)
     public Map<String, Object> getMaladiesStats() {
+        StatisticsEngine.MaladieCounts counts = statisticsEngine.maladieCounts();
         Map<String, Object> stats = new HashMap<>();
 
-        stats.put("total de maladies", maladieRepository.count());
-
-        List<Object[]> diseasesByType = maladieRepository.countMaladiesByType();
-        Map<String, Long> typeCounts = diseasesByType.stream()
-            .collect(Collectors.toMap(
-                obj -> (String) obj[0], // Type name as String
-                obj -> (Long) obj[1]    // Count as Long
-            ));
-        stats.put("maladies par type", typeCounts);
-
-        stats.put("Nombres de traitement disponible", maladieRepository.countByTraitementsIsNotEmpty());
-
-        stats.put("Compte de symptomes manifester", maladieRepository.countTotalUniqueSymptoms());
-
-        stats.put("Compte de traitements", maladieRepository.countTotalUniqueTreatments());
-
-        List<Object[]> diseasesByPatientCount = maladieRepository.countPatientsPerDisease();
-        Map<String, Long> patientsPerDisease = diseasesByPatientCount.stream()
-            .collect(Collectors.toMap(
-                obj -> ((Maladies) obj[0]).getNom(), // Disease name
-                obj -> (Long) obj[1]                // Count of patients
-            ));
-        stats.put("patients par maladie", patientsPerDisease);
-
-        stats.put("maladies avec des images", maladieRepository.countByImagesIsNotEmpty());
+        stats.put("total de maladies", counts.total());
+        stats.put("maladies par type", counts.byType());
+        stats.put("Nombres de traitement disponible", counts.traitementEntries());
+        stats.put("Compte de symptomes manifester", counts.distinctSymptomes());
+        stats.put("Compte de traitements", counts.distinctTraitements());
+        stats.put("patients par maladie", counts.patientsByNom());
+        stats.put("maladies avec des images", counts.images());
 
         return stats;
     }
 
+    /**
+     * Differential lookup: ranks the maladies by the symptoms they share with the patient (see SymptomeIndex).
+     * @param patientId The patient whose symptomesManifester are matched.
+     * @param size The maximum number of maladies, null for the configured default.
+     * @return The best matching maladies first, or empty if the patient does not exist.
+     */
+    @Transactional(readOnly = true)
+    public Optional<List<MaladieMatchDTO>> getDifferentialForPatient(Long patientId, Integer size) {
+        int limit = paginationProperties.resolve(size);
+        return patientRepository.findById(patientId)
+                .map(patient -> symptomeIndex.rank(patient.getSymptomesManifester() != null
+                        ? patient.getSymptomesManifester() : Set.of(), limit));
+    }
+
     @Transactional(readOnly = true)
     public Optional<List<PatientDTO>> getPatientsByMaladieId(Long maladieId) {
         return maladieRepository.findById(maladieId)
@@ -177,59 +219,8 @@ public class MaladieService {
                         maladie.getPatientsAffecter().size();
                     }
                     return maladie.getPatientsAffecter().stream()
-                            .map(this::convertToPatientDtoForMaladie) // Custom conversion for nested patient DTO
+                            .map(DtoConversions::toPatientDtoWithoutMaladies) // Custom conversion for nested patient DTO
                             .collect(Collectors.toList());
                 });
     }
-
-    // --- Conversion Methods ---
-    
-    // Converts Maladie entity to MaladieDTO for API response
-    public MaladieDTO convertToDto(Maladies maladie) {
-        if (maladie == null) {
-            return null;
-        }
-        return new MaladieDTO(
-            maladie.getId(),
-            maladie.getNom(),
-            maladie.getType(),
-            maladie.getSymptomes() != null ? List.copyOf(maladie.getSymptomes()) : List.of(),
-            maladie.getTraitements() != null ? List.copyOf(maladie.getTraitements()) : List.of()
-        );
-    }
-
-    // Converts MaladieDTO (input) to Maladie entity for persistence
-    public Maladies convertToEntity(MaladieDTO maladieDTO) {
-        if (maladieDTO == null) {
-            return null;
-        }
-        Maladies maladie = new Maladies();
-        maladie.setId(maladieDTO.id()); // For update scenarios, ID is present
-        maladie.setNom(maladieDTO.nom());
-        maladie.setType(maladieDTO.type());
-        maladie.setSymptomes(maladieDTO.symptomes() != null ? new HashSet<>(maladieDTO.symptomes()) : new HashSet<>());
-        maladie.setTraitements(maladieDTO.traitements() != null ? new HashSet<>(maladieDTO.traitements()) : new HashSet<>());
-        return maladie;
-    }
-
-    private PatientDTO convertToPatientDtoForMaladie(Patients patient) {
-        if (patient == null) {
-            return null;
-        }
-        return new PatientDTO(
-            patient.getId(),
-            patient.getNom(),
-            patient.getPrenom(),
-            patient.getNum_urgence(),
-            patient.getTelephone(), 
-            patient.getEmail(),
-            patient.getGroupeSanguin(),
-            patient.getStade(),
-            patient.getSymptomesManifester() != null ? List.copyOf(patient.getSymptomesManifester()) : List.of(),
-            patient.getTraitementSuivie() != null ? List.copyOf(patient.getTraitementSuivie()) : List.of(),
-            List.of() // IMPORTANT: Do NOT include maladiesAffectees here to prevent infinite recursion
-            );
-    }
-
-    
 }
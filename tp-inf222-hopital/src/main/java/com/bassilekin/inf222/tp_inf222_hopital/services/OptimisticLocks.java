@@ -0,0 +1,24 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+/**
+ * Conditional writes (If-Match) of the versioned entities.
+ */
+final class OptimisticLocks {
+
+    private OptimisticLocks() {
+    }
+
+    /**
+     * Checks that the entity is still at the version the client read.
+     * @param expectedVersion The version of the If-Match header, null for an unconditional write.
+     * @throws ObjectOptimisticLockingFailureException if the entity changed since, the exception raised
+     *         when the version check of Hibernate fails at commit, so callers handle both the same way.
+     */
+    static void checkVersion(Class<?> entityType, Object id, Long expectedVersion, Long version) {
+        if (expectedVersion != null && !expectedVersion.equals(version)) {
+            throw new ObjectOptimisticLockingFailureException(entityType, id);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.config.PatientCacheProperties;
+import com.bassilekin.inf222.tp_inf222_hopital.events.MaladieChangedEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.events.PatientChangedEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Read-through cache of fully built PatientDTOs, keyed by patient ID, for the single-patient lookups
+ * that clients poll. Lookups by email and telephone resolve the ID through two small indexes and share
+ * the same entries. Entries are bounded in number and age (app.patients.cache), and invalidated once a
+ * transaction that changed the patient, or the nom of one of its maladies, has committed.
+ * Hits, misses and evictions are published as cache.* metrics with the tag cache=patients.
+ */
+@Component
+public class PatientCache {
+
+    private final TransactionTemplate transactionTemplate;
+    private final Cache<Long, PatientDTO> cache;
+    // Written on each load, cleaned when the entry leaves the cache; a hit is checked against the entry itself
+    private final Map<String, Long> idByEmail = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> idByTelephone = new ConcurrentHashMap<>();
+    // Incremented before each invalidation: a load that saw an older value may hold a state read before
+    // the change committed, and is not kept
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public PatientCache(PatientCacheProperties properties, PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+        // Joins the caller's transaction if any; a hit opens none
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.maxSize())
+                .expireAfterWrite(properties.ttl())
+                .recordStats()
+                .removalListener((Long id, PatientDTO patient, RemovalCause cause) -> {
+                    if (patient != null && cause != RemovalCause.REPLACED) {
+                        unindex(id, patient);
+                    }
+                })
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "patients");
+    }
+
+    /**
+     * @param id The patient ID.
+     * @param loader Reads the patient from the database on a miss; runs in a read-only transaction.
+     * @return The cached or loaded patient, empty if it does not exist.
+     */
+    public Optional<PatientDTO> get(Long id, Supplier<Optional<PatientDTO>> loader) {
+        return lookup(id, patient -> true, loader);
+    }
+
+    public Optional<PatientDTO> getByEmail(String email, Supplier<Optional<PatientDTO>> loader) {
+        return lookup(idByEmail.get(email), patient -> email.equals(patient.email()), loader);
+    }
+
+    public Optional<PatientDTO> getByTelephone(int telephone, Supplier<Optional<PatientDTO>> loader) {
+        return lookup(idByTelephone.get(telephone), patient -> patient.telephone() == telephone, loader);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPatientChanged(PatientChangedEvent event) {
+        // A creation changes no cached entry: misses are not cached
+        if (event.before() != null) {
+            invalidations.incrementAndGet();
+            cache.invalidate(event.before().id());
+        }
+    }
+
+    /**
+     * The maladiesAffectees of a PatientDTO hold the ID and nom of each maladie: the patients of a maladie
+     * are invalidated when it is renamed or deleted, found by scanning the cached entries (no query).
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMaladieChanged(MaladieChangedEvent event) {
+        if (event.before() == null || (event.after() != null && Objects.equals(event.before().nom(), event.after().nom()))) {
+            return;
+        }
+        Long maladieId = event.before().id();
+        invalidations.incrementAndGet();
+        cache.asMap().values().removeIf(patient -> patient.maladiesAffectees().stream()
+                .anyMatch(maladie -> maladieId.equals(maladie.id())));
+    }
+
+    private Optional<PatientDTO> lookup(Long knownId, Predicate<PatientDTO> matches, Supplier<Optional<PatientDTO>> loader) {
+        if (knownId != null) {
+            PatientDTO cached = cache.getIfPresent(knownId);
+            if (cached != null && matches.test(cached)) {
+                return Optional.of(cached);
+            }
+        }
+        long seen = invalidations.get();
+        Optional<PatientDTO> loaded = transactionTemplate.execute(status -> loader.get());
+        loaded.ifPresent(patient -> put(patient, seen));
+        return loaded;
+    }
+
+    private void put(PatientDTO patient, long seen) {
+        if (patient.email() != null) {
+            idByEmail.put(patient.email(), patient.id());
+        }
+        idByTelephone.put(patient.telephone(), patient.id());
+        cache.put(patient.id(), patient);
+        // Checked after the put: an invalidation either happened before and is caught here, or removes the entry
+        if (invalidations.get() != seen) {
+            cache.invalidate(patient.id());
+        }
+    }
+
+    private void unindex(Long id, PatientDTO patient) {
+        if (patient.email() != null) {
+            idByEmail.remove(patient.email(), id);
+        }
+        idByTelephone.remove(patient.telephone(), id);
+    }
+}
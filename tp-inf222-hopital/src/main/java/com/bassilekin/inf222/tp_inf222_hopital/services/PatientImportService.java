@@ -0,0 +1,171 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.hibernate.Session;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.BulkImportResultDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.BulkImportResultDTO.RowError;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientCreateUpdateDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+import com.bassilekin.inf222.tp_inf222_hopital.events.PatientChangedEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.MaladieRepository;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.PatientRepository;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+
+import jakarta.persistence.EntityManager;
+import lombok.AllArgsConstructor;
+
+/**
+ * Creates patients in bulk from a stream of PatientCreateUpdateDTO.
+ * Rows are read lazily and written by chunks, one transaction per chunk: the patient IDs come from
+ * the pooled sequence, so Hibernate sends the inserts in JDBC batches (hibernate.jdbc.batch_size).
+ * A chunk that fails is replayed row by row, so one bad row only rejects itself.
+ */
+@Service
+@AllArgsConstructor
+public class PatientImportService {
+
+    // Number of rows written per transaction
+    private static final int CHUNK_SIZE = 500;
+
+    private final PatientRepository patientRepository;
+    private final MaladieRepository maladieRepository;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private record Row(int number, PatientCreateUpdateDTO patient) {}
+
+    /**
+     * Imports every row of the stream.
+     * @param rows The rows of a JSON array or of an NDJSON body, bound one at a time.
+     * @return The number of rows read and imported, and the reason of each rejected row.
+     */
+    public BulkImportResultDTO importPatients(MappingIterator<PatientCreateUpdateDTO> rows) {
+        // The catalog is small: its IDs are read once to validate every row without a query
+        Set<Long> knownMaladieIds = new HashSet<>(maladieRepository.findAllIds());
+        List<RowError> errors = new ArrayList<>();
+        List<Row> chunk = new ArrayList<>(CHUNK_SIZE);
+        int received = 0;
+        int imported = 0;
+
+        while (true) {
+            int rowNumber = received + 1;
+            PatientCreateUpdateDTO patient;
+            try {
+                if (!rows.hasNextValue()) {
+                    break;
+                }
+                received = rowNumber;
+                patient = rows.nextValue();
+            } catch (JsonMappingException e) {
+                // The row is valid JSON but does not bind to a patient: skip it and go on
+                errors.add(new RowError(rowNumber, "Invalid patient: " + e.getOriginalMessage()));
+                continue;
+            } catch (IOException e) {
+                // Malformed JSON: the rest of the body cannot be located reliably
+                errors.add(new RowError(rowNumber, "Malformed JSON, import stopped: " + e.getMessage()));
+                break;
+            }
+
+            String invalid = validate(patient, knownMaladieIds);
+            if (invalid != null) {
+                errors.add(new RowError(rowNumber, invalid));
+                continue;
+            }
+            chunk.add(new Row(rowNumber, patient));
+            if (chunk.size() == CHUNK_SIZE) {
+                imported += writeChunk(chunk, errors);
+            }
+        }
+        imported += writeChunk(chunk, errors);
+        return new BulkImportResultDTO(received, imported, errors);
+    }
+
+    private static String validate(PatientCreateUpdateDTO patient, Set<Long> knownMaladieIds) {
+        if (patient == null) {
+            return "Empty row";
+        }
+        if (patient.maladieIds() != null) {
+            List<Long> missingIds = patient.maladieIds().stream()
+                    .filter(id -> id == null || !knownMaladieIds.contains(id))
+                    .toList();
+            if (!missingIds.isEmpty()) {
+                return "Some maladie IDs do not exist: " + missingIds;
+            }
+        }
+        return null;
+    }
+
+    private int writeChunk(List<Row> chunk, List<RowError> errors) {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        int written;
+        try {
+            transactionTemplate.executeWithoutResult(status -> insert(chunk));
+            written = chunk.size();
+        } catch (RuntimeException chunkFailure) {
+            // A constraint violation rolled back the whole chunk: retry its rows one by one
+            written = 0;
+            for (Row row : chunk) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> insert(List.of(row)));
+                    written++;
+                } catch (RuntimeException rowFailure) {
+                    errors.add(new RowError(row.number(), NestedExceptionUtils.getMostSpecificCause(rowFailure).getMessage()));
+                }
+            }
+        }
+        chunk.clear();
+        return written;
+    }
+
+    private void insert(List<Row> rows) {
+        Map<Long, Maladies> maladies = loadMaladies(rows);
+        for (Row row : rows) {
+            Patients patient = DtoConversions.toPatientEntity(row.patient());
+            if (row.patient().maladieIds() != null) {
+                // Only the owning side is set: the inverse collections are not read by the import
+                row.patient().maladieIds().forEach(id -> patient.getSetMaladies().add(maladies.get(id)));
+            }
+            patientRepository.save(patient);
+            eventPublisher.publishEvent(PatientChangedEvent.created(patient));
+        }
+        // Sends the batched inserts now so that a failure is reported for this chunk
+        entityManager.flush();
+    }
+
+    // Resolves the maladies referenced by the rows in one call, served by the second-level cache once warm
+    private Map<Long, Maladies> loadMaladies(List<Row> rows) {
+        List<Long> ids = rows.stream()
+                .map(Row::patient)
+                .filter(patient -> patient.maladieIds() != null)
+                .flatMap(patient -> patient.maladieIds().stream())
+                .distinct()
+                .toList();
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+        return entityManager.unwrap(Session.class)
+                .byMultipleIds(Maladies.class)
+                .multiLoad(ids).stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toMap(Maladies::getId, Function.identity()));
+    }
+}
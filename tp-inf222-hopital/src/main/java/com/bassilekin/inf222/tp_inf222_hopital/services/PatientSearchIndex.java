@@ -0,0 +1,316 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+import com.bassilekin.inf222.tp_inf222_hopital.events.PatientChangedEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.PatientRepository;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * In-memory Lucene index of the searchable text of the patients: nom, prenom, symptomes and traitements.
+ * Terms are lowercased and stripped of their accents, and queries match each word exactly or within one or
+ * two typos, so a search is a lookup in the term dictionary instead of a LIKE '%x%' scan of the tables.
+ * The index is built from the database at startup, then kept in sync with the patient events once their
+ * transaction has committed; it only holds IDs, the patients themselves are read from the database.
+ */
+@Component
+public class PatientSearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(PatientSearchIndex.class);
+
+    // Number of patients read per transaction when the index is rebuilt
+    private static final int REBUILD_PAGE_SIZE = 500;
+
+    private static final String ID = "id";
+    private static final String NOM = "nom";
+    private static final String PRENOM = "prenom";
+    private static final String SYMPTOME = "symptome";
+    private static final String TRAITEMENT = "traitement";
+
+    private final PatientRepository patientRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Analyzer analyzer = new FoldingAnalyzer();
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+    // Serializes the writes that read the database; a lock rather than synchronized, which would pin a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock: patients created or updated, not indexed yet
+    private final Set<Long> pendingIds = new HashSet<>();
+
+    public PatientSearchIndex(PatientRepository patientRepository, PlatformTransactionManager transactionManager) throws IOException {
+        this.patientRepository = patientRepository;
+        // Own read-only transactions: the event listener runs once the writer's transaction has completed
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.transactionTemplate.setReadOnly(true);
+        this.writer = new IndexWriter(new ByteBuffersDirectory(), new IndexWriterConfig(analyzer));
+        this.searcherManager = new SearcherManager(writer, null);
+    }
+
+    /**
+     * Indexes every patient, by pages of REBUILD_PAGE_SIZE read in their own transaction.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        long afterId = 0;
+        int indexed = 0;
+        while (true) {
+            long cursor = afterId;
+            // Reading and writing under the lock keeps a page from overwriting a more recent event
+            List<Long> ids;
+            lock.lock();
+            try {
+                ids = transactionTemplate.execute(status -> {
+                    List<Patients> page = patientRepository.findByIdGreaterThanOrderByIdAsc(cursor, Limit.of(REBUILD_PAGE_SIZE));
+                    page.forEach(this::write);
+                    return page.stream().map(Patients::getId).toList();
+                });
+            } finally {
+                lock.unlock();
+            }
+            if (ids.isEmpty()) {
+                break;
+            }
+            indexed += ids.size();
+            afterId = ids.get(ids.size() - 1);
+        }
+        refresh();
+        logger.info("Patient search index built with {} patients", indexed);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPatientChanged(PatientChangedEvent event) {
+        if (event.after() == null) {
+            lock.lock();
+            try {
+                pendingIds.remove(event.before().id());
+                delete(event.before().id());
+            } finally {
+                lock.unlock();
+            }
+            refresh();
+        } else {
+            // The event does not carry the text fields: the row is read back before the next search,
+            // with the other pending ones, so a bulk import costs one query per page and not per patient
+            boolean pageFull;
+            lock.lock();
+            try {
+                pendingIds.add(event.after().id());
+                pageFull = pendingIds.size() >= REBUILD_PAGE_SIZE;
+            } finally {
+                lock.unlock();
+            }
+            if (pageFull) {
+                indexPending();
+            }
+        }
+    }
+
+    /**
+     * Ranks the patients matching every word of the text. A word matches a nom or prenom (weighted
+     * higher), a symptome or a traitement, ignoring case and accents and tolerating typos.
+     * Call it outside a transaction: the patients changed since the last search are read in a new one,
+     * which would otherwise hold a second connection.
+     * @param text The words to search for.
+     * @param limit The maximum number of IDs returned.
+     * @return The IDs of the matching patients, best match first.
+     * @throws IllegalArgumentException if the text contains no word.
+     */
+    public List<Long> search(String text, int limit) {
+        Query query = buildQuery(text);
+        indexPending();
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                List<Long> ids = new ArrayList<>();
+                for (ScoreDoc hit : searcher.search(query, limit).scoreDocs) {
+                    ids.add(searcher.storedFields().document(hit.doc).getField(ID).numericValue().longValue());
+                }
+                return ids;
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Indexes the patients created or updated since the last search
+    private void indexPending() {
+        lock.lock();
+        try {
+            if (pendingIds.isEmpty()) {
+                return;
+            }
+            List<Long> ids = new ArrayList<>(pendingIds);
+            pendingIds.clear();
+            for (int from = 0; from < ids.size(); from += REBUILD_PAGE_SIZE) {
+                List<Long> page = ids.subList(from, Math.min(from + REBUILD_PAGE_SIZE, ids.size()));
+                transactionTemplate.executeWithoutResult(status -> {
+                    Set<Long> missing = new HashSet<>(page);
+                    for (Patients patient : patientRepository.findAllById(page)) {
+                        write(patient);
+                        missing.remove(patient.getId());
+                    }
+                    // Deleted since the event
+                    missing.forEach(this::delete);
+                });
+            }
+        } finally {
+            lock.unlock();
+        }
+        refresh();
+    }
+
+    private Query buildQuery(String text) {
+        List<String> words = analyze(text == null ? "" : text);
+        if (words.isEmpty()) {
+            throw new IllegalArgumentException("The search text must contain at least one word");
+        }
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        for (String word : words) {
+            BooleanQuery.Builder anyField = new BooleanQuery.Builder();
+            addField(anyField, NOM, word, 3f);
+            addField(anyField, PRENOM, word, 3f);
+            addField(anyField, SYMPTOME, word, 1f);
+            addField(anyField, TRAITEMENT, word, 1f);
+            query.add(anyField.build(), Occur.MUST);
+        }
+        return query.build();
+    }
+
+    // An exact match scores twice a fuzzy one; short words allow fewer typos so they stay selective
+    private static void addField(BooleanQuery.Builder query, String field, String word, float boost) {
+        Term term = new Term(field, word);
+        query.add(new BoostQuery(new TermQuery(term), 2 * boost), Occur.SHOULD);
+        int maxEdits = word.length() <= 2 ? 0 : word.length() <= 5 ? 1 : 2;
+        if (maxEdits > 0) {
+            query.add(new BoostQuery(new FuzzyQuery(term, maxEdits, 1), boost), Occur.SHOULD);
+        }
+    }
+
+    private List<String> analyze(String text) {
+        List<String> words = new ArrayList<>();
+        try (TokenStream tokens = analyzer.tokenStream(NOM, text)) {
+            CharTermAttribute term = tokens.addAttribute(CharTermAttribute.class);
+            tokens.reset();
+            while (tokens.incrementToken()) {
+                words.add(term.toString());
+            }
+            tokens.end();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return words;
+    }
+
+    // Must be called inside a transaction: reads the lazy collections of the patient
+    private void write(Patients patient) {
+        Document document = new Document();
+        document.add(new StringField(ID, patient.getId().toString(), Field.Store.NO));
+        document.add(new StoredField(ID, patient.getId()));
+        addText(document, NOM, patient.getNom());
+        addText(document, PRENOM, patient.getPrenom());
+        if (patient.getSymptomesManifester() != null) {
+            patient.getSymptomesManifester().forEach(symptome -> addText(document, SYMPTOME, symptome));
+        }
+        if (patient.getTraitementSuivie() != null) {
+            patient.getTraitementSuivie().forEach(traitement -> addText(document, TRAITEMENT, traitement));
+        }
+        try {
+            writer.updateDocument(new Term(ID, patient.getId().toString()), document);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void addText(Document document, String field, String value) {
+        if (value != null) {
+            document.add(new TextField(field, value, Field.Store.NO));
+        }
+    }
+
+    private void delete(Long id) {
+        try {
+            writer.deleteDocuments(new Term(ID, id.toString()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Makes the last writes visible to the searches, without committing the in-memory index
+    private void refresh() {
+        try {
+            searcherManager.maybeRefreshBlocking();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        searcherManager.close();
+        writer.close();
+    }
+
+    /**
+     * Splits on word boundaries, then lowercases and folds accents: "Paracétamol" is indexed as "paracetamol".
+     */
+    private static final class FoldingAnalyzer extends Analyzer {
+
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            Tokenizer tokenizer = new StandardTokenizer();
+            return new TokenStreamComponents(tokenizer, new ASCIIFoldingFilter(new LowerCaseFilter(tokenizer)));
+        }
+
+        @Override
+        protected TokenStream normalize(String fieldName, TokenStream in) {
+            return new ASCIIFoldingFilter(new LowerCaseFilter(in));
+        }
+    }
+}
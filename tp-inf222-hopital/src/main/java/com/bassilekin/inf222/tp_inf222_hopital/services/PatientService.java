@@ -1,165 +1,152 @@
 package com.bassilekin.inf222.tp_inf222_hopital.services;
 
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.CursorPage;
 import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieDTO; // New import for nested DTOs
-import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieSummaryDTO;
 import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientCreateUpdateDTO;
 import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientPatch;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientSumDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.config.PaginationProperties;
 import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
 import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
 import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+import com.bassilekin.inf222.tp_inf222_hopital.events.PatientChangedEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.events.PatientChangedEvent.PatientState;
 import com.bassilekin.inf222.tp_inf222_hopital.repository.MaladieRepository;
 import com.bassilekin.inf222.tp_inf222_hopital.repository.PatientRepository;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.PatientSummaryRow;
+import io.micrometer.core.annotation.Timed;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.OptimisticLockException;
 import lombok.AllArgsConstructor;
+import org.hibernate.Session;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @AllArgsConstructor // Injects repositories
 @Transactional // Apply transactional behavior to all public methods by default
+@Timed(value = "app.service", histogram = true) // One timer per public method, tagged with class and method
 public class PatientService {
 
+    // Number of patients converted between two clears of the persistence context during an export
+    private static final int EXPORT_CHUNK_SIZE = 500;
+    // Number of patient IDs per query when the treatments of summaries are read
+    private static final int SUMMARY_CHUNK_SIZE = 500;
+
     private final PatientRepository patientRepository;
     private final MaladieRepository maladieRepository;
+    private final PaginationProperties paginationProperties;
+    private final EntityManager entityManager;
+    private final ApplicationEventPublisher eventPublisher; // Changes are published for the in-memory statistics
+    private final StatisticsEngine statisticsEngine;
+    private final MaladieLinkReconciler maladieLinkReconciler;
+    private final PatientSearchIndex patientSearchIndex;
+    private final PatientCache patientCache; // Single-patient lookups, invalidated by the change events
+    private final PlatformTransactionManager transactionManager; // For the methods that open their transaction late
 
-    // --- Conversion Methods ---
-
-    /**
-     * Converts a Patients entity to a PatientDTO for API response.
-     * Includes associated maladies as MaladieSummaryDTOs.
-     * @param patient The Patients entity to convert.
-     * @return The corresponding PatientDTO.
-     */
-    public PatientDTO convertToPatientDto(Patients patient) {
-        if (patient == null) {
-            return null;
-        }
-
-        // Force initialization of the lazy collection before conversion
-        // This ensures the maladies are loaded within the transaction context
-        if (patient.getSetMaladies() != null) {
-            patient.getSetMaladies().size(); // Triggers lazy loading
-        }
-
-        List<MaladieSummaryDTO> maladiesAffecteesDto = patient.getSetMaladies() != null ?
-                patient.getSetMaladies().stream()
-                    .map(this::convertToMaladieSummaryDto)
-                    .collect(Collectors.toList())
-                : List.of();
-
-        return new PatientDTO(
-            patient.getId(),
-            patient.getNom(),
-            patient.getPrenom(),
-            patient.getTelephone(),
-            patient.getNum_urgence(), // Corrected field name based on your entity
-            patient.getEmail(),
-            patient.getGroupeSanguin(),
-            patient.getStade(),
-            patient.getSymptomesManifester() != null ? List.copyOf(patient.getSymptomesManifester()) : List.of(),
-            patient.getTraitementSuivie() != null ? List.copyOf(patient.getTraitementSuivie()) : List.of(),
-            maladiesAffecteesDto
-        );
-    }
+    // --- CRUD Operations ---
 
     /**
-     * Converts PatientCreateUpdateDTO to Patients entity.
-     * Note: ManyToMany relationships (maladies) are NOT handled here.
-     * They are managed after fetching full Maladie entities.
-     * @param patientCreateUpdateDTO The input DTO to convert.
-     * @return The corresponding Patients entity.
+     * Retrieves one page of patients ordered by ID.
+     * @param cursor The continuation token returned with the previous page, null for the first page.
+     * @param size The requested page size, null for the configured default.
+     * @return The page of PatientDTOs and the token of the next page.
+     * @throws IllegalArgumentException if the cursor is not a valid patient cursor.
      */
-    public Patients convertToEntity(PatientCreateUpdateDTO patientCreateUpdateDTO) {
-        if (patientCreateUpdateDTO == null) {
-            return null;
+    @Transactional(readOnly = true)
+    public CursorPage<PatientDTO> getPatientsPage(String cursor, Integer size) {
+        int pageSize = paginationProperties.resolve(size);
+        long afterId = CursorPagination.decode("patients", cursor);
+        List<Patients> patients = patientRepository.findByIdGreaterThanOrderByIdAsc(afterId, Limit.of(pageSize + 1));
+        // The extra row only tells whether a next page exists: its collections are not needed
+        List<Long> ids = patients.stream().limit(pageSize).map(Patients::getId).toList();
+        if (!ids.isEmpty()) {
+            patientRepository.fetchMaladiesOf(ids);
+            patientRepository.fetchSymptomesManifesterOf(ids);
+            patientRepository.fetchTraitementSuivieOf(ids);
         }
-
-        Patients patient = new Patients();
-        // Set Personnes fields (inherited)
-        patient.setNom(patientCreateUpdateDTO.nom());
-        patient.setPrenom(patientCreateUpdateDTO.prenom());
-        patient.setNum_urgence(patientCreateUpdateDTO.numUrgence());
-        patient.setTelephone(patientCreateUpdateDTO.telephone());
-        patient.setEmail(patientCreateUpdateDTO.email());
-
-        // Set Patients specific fields
-        patient.setGroupeSanguin(patientCreateUpdateDTO.groupeSanguin());
-        patient.setStade(patientCreateUpdateDTO.stade());
-        patient.setSymptomesManifester(patientCreateUpdateDTO.symptomesManifester() != null ? new HashSet<>(patientCreateUpdateDTO.symptomesManifester()) : new HashSet<>());
-        patient.setTraitementSuivie(patientCreateUpdateDTO.traitementSuivie() != null ? new HashSet<>(patientCreateUpdateDTO.traitementSuivie()) : new HashSet<>());
-
-        // Initialize ManyToMany set to avoid NPEs later
-        patient.setSetMaladies(new HashSet<>());
-
-        // Dates will be set by @PrePersist / @PreUpdate in the entity/superclass
-        return patient;
+        return CursorPagination.toPage("patients", patients, pageSize, Patients::getId, DtoConversions::toPatientDto);
     }
 
     /**
-     * Helper method to convert a Maladie entity to a MaladieSummaryDTO.
-     * Used when creating the PatientDTO for the list of affected maladies.
-     * @param maladie The Maladie entity to convert.
-     * @return The corresponding MaladieSummaryDTO.
+     * Streams every patient, ordered by ID, to the given sink.
+     * Rows come from a server-side cursor and are converted by chunks: the collections of a
+     * chunk are loaded in batches, then the chunk is detached so memory stays flat whatever
+     * the size of the table.
+     * @param sink Receives each PatientDTO in order.
+     * @return The number of patients exported.
      */
-    private MaladieSummaryDTO convertToMaladieSummaryDto(Maladies maladie) {
-        if (maladie == null) {
-            return null;
+    @Transactional(readOnly = true)
+    public long exportPatients(Consumer<PatientDTO> sink) {
+        long exported = 0;
+        List<Patients> chunk = new ArrayList<>(EXPORT_CHUNK_SIZE);
+        try (Stream<Patients> patients = patientRepository.streamAll()) {
+            Iterator<Patients> iterator = patients.iterator();
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() == EXPORT_CHUNK_SIZE) {
+                    exported += exportChunk(chunk, sink);
+                }
+            }
+            exported += exportChunk(chunk, sink);
         }
-        return new MaladieSummaryDTO(
-            maladie.getId(),
-            maladie.getNom()
-        );
+        return exported;
     }
 
-    /**
-     * Helper method to convert a Maladie entity to a full MaladieDTO.
-     * Used when returning a list of maladies for a patient.
-     * @param maladie The Maladie entity to convert.
-     * @return The corresponding MaladieDTO.
-     */
-    private MaladieDTO convertToMaladieDtoForPatient(Maladies maladie) {
-        if (maladie == null) {
-            return null;
-        }
-        // Exclude circular dependencies (e.g., patientsAffecter) when returning nested DTOs
-        return new MaladieDTO(
-            maladie.getId(),
-            maladie.getNom(),
-            maladie.getType(),
-            maladie.getSymptomes() != null ? List.copyOf(maladie.getSymptomes()) : List.of(),
-            maladie.getTraitements() != null ? List.copyOf(maladie.getTraitements()) : List.of()
-        );
+    private int exportChunk(List<Patients> chunk, Consumer<PatientDTO> sink) {
+        // Converting after the whole chunk is read lets batch fetching cover all of its rows
+        chunk.forEach(patient -> sink.accept(DtoConversions.toPatientDto(patient)));
+        int size = chunk.size();
+        chunk.clear();
+        entityManager.clear();
+        return size;
     }
 
-    // --- CRUD Operations ---
-
-    @Transactional(readOnly = true)
-    public List<PatientDTO> getAllPatients() {
-        // No FETCH JOIN needed here, as convertToPatientDto handles lazy loading
-        return patientRepository.findAll().stream()
-                .map(this::convertToPatientDto)
-                .collect(Collectors.toList());
+    // Resolves maladie IDs through the second-level cache: only the IDs missing from it are read from the database.
+    // Unknown IDs are left out of the result, like findAllById.
+    private List<Maladies> findMaladiesByIds(List<Long> ids) {
+        return entityManager.unwrap(Session.class)
+                .byMultipleIds(Maladies.class)
+                .multiLoad(ids).stream()
+                .filter(Objects::nonNull)
+                .toList();
     }
 
-    @Transactional(readOnly = true)
+    // Served from PatientCache, which opens a read-only transaction on a miss only
+    @Transactional(propagation = Propagation.SUPPORTS)
     public Optional<PatientDTO> getPatientById(Long id) {
-        return patientRepository.findById(id)
-                .map(this::convertToPatientDto);
+        return patientCache.get(id, () -> patientRepository.findById(id)
+                .map(DtoConversions::toPatientDto));
     }
 
     @Transactional
     public PatientDTO createPatient(PatientCreateUpdateDTO patientCreateDTO) {
-        Patients patient = convertToEntity(patientCreateDTO);
+        Patients patient = DtoConversions.toPatientEntity(patientCreateDTO);
 
         if (patientCreateDTO.maladieIds() != null && !patientCreateDTO.maladieIds().isEmpty()) {
-            List<Maladies> maladies = maladieRepository.findAllById(patientCreateDTO.maladieIds());
+            List<Maladies> maladies = findMaladiesByIds(patientCreateDTO.maladieIds());
 
             if (maladies.size() != patientCreateDTO.maladieIds().size()) {
                 Set<Long> foundIds = maladies.stream().map(Maladies::getId).collect(Collectors.toSet());
@@ -183,12 +170,22 @@ public class PatientService {
         }
 
         Patients savedPatient = patientRepository.save(patient);
-        return convertToPatientDto(savedPatient);
+        eventPublisher.publishEvent(PatientChangedEvent.created(savedPatient));
+        return DtoConversions.toPatientDto(savedPatient);
     }
 
+    /**
+     * Replaces the data of a patient.
+     * @param expectedVersion The version the client read (If-Match), null for an unconditional update.
+     * @throws ObjectOptimisticLockingFailureException if the patient is no longer at expectedVersion, or
+     *         was updated by a concurrent transaction.
+     */
     @Transactional
-    public Optional<PatientDTO> updatePatient(Long id, PatientCreateUpdateDTO patientUpdateDTO) {
+    public Optional<PatientDTO> updatePatient(Long id, PatientCreateUpdateDTO patientUpdateDTO, Long expectedVersion) {
         return patientRepository.findById(id).map(existingPatient -> {
+            OptimisticLocks.checkVersion(Patients.class, id, expectedVersion, existingPatient.getVersion());
+            Set<Long> linkedIds = maladieLinkReconciler.linkedIds(id);
+            PatientState before = PatientState.of(existingPatient, linkedIds);
             // Update fields from the DTO
             existingPatient.setNom(patientUpdateDTO.nom());
             existingPatient.setPrenom(patientUpdateDTO.prenom());
@@ -202,35 +199,14 @@ public class PatientService {
             existingPatient.setSymptomesManifester(patientUpdateDTO.symptomesManifester() != null ? new HashSet<>(patientUpdateDTO.symptomesManifester()) : new HashSet<>());
             existingPatient.setTraitementSuivie(patientUpdateDTO.traitementSuivie() != null ? new HashSet<>(patientUpdateDTO.traitementSuivie()) : new HashSet<>());
 
-            // Handle ManyToMany relationship update
-            // 1. Clear existing relations (or compare and remove/add for efficiency)
-            existingPatient.getSetMaladies().clear();
-            
-            // 2. Add new relations based on DTO
-            if (patientUpdateDTO.maladieIds() != null && !patientUpdateDTO.maladieIds().isEmpty()) {
-                List<Maladies> newMaladies = maladieRepository.findAllById(patientUpdateDTO.maladieIds());
-
-                if (newMaladies.size() != patientUpdateDTO.maladieIds().size()) {
-                    Set<Long> foundIds = newMaladies.stream().map(Maladies::getId).collect(Collectors.toSet());
-                    List<Long> missingIds = patientUpdateDTO.maladieIds().stream()
-                            .filter(maladieId -> !foundIds.contains(maladieId))
-                            .toList();
-                    throw new IllegalArgumentException("Some maladie IDs do not exist for update: " + missingIds);
-                }
-
-                existingPatient.getSetMaladies().addAll(newMaladies);
+            // Handle ManyToMany relationship update: only the join table rows that change are written
+            Set<Long> maladieIds = maladieLinkReconciler.reconcile(id, linkedIds, patientUpdateDTO.maladieIds());
 
-                // Synchronize bidirectional relationship for updated maladies
-                for (Maladies newMaladie : newMaladies) {
-                    if (newMaladie.getPatientsAffecter() == null) {
-                        newMaladie.setPatientsAffecter(new HashSet<>());
-                    }
-                    newMaladie.getPatientsAffecter().add(existingPatient);
-                }
-            }
-
-            Patients savedPatient = patientRepository.save(existingPatient);
-            return convertToPatientDto(savedPatient);
+            // Flushed now so that the returned version is the one written (replaced collections always
+            // make the patient dirty)
+            Patients savedPatient = patientRepository.saveAndFlush(existingPatient);
+            eventPublisher.publishEvent(PatientChangedEvent.updated(before, PatientState.of(savedPatient, maladieIds)));
+            return DtoConversions.toPatientDto(savedPatient);
         });
     }
 
@@ -238,41 +214,43 @@ public class PatientService {
     public void deletePatient(Long id) {
          Patients patient = patientRepository.findById(id)
         .orElseThrow(() -> new RuntimeException("Patient non trouvé"));
+        PatientState before = PatientState.of(patient);
         patient.getSetMaladies().clear(); // Supprime toutes les associations
         patientRepository.delete(patient);
+        eventPublisher.publishEvent(PatientChangedEvent.deleted(before));
     }    
 
     // --- Search Operations ---
     @Transactional(readOnly = true)
     public List<PatientDTO> findByNom(String nom) {
         return patientRepository.findByNom(nom).stream()
-                .map(this::convertToPatientDto)
+                .map(DtoConversions::toPatientDto)
                 .collect(Collectors.toList());
     }
 
-    @Transactional(readOnly = true)
+    @Transactional(propagation = Propagation.SUPPORTS)
     public Optional<PatientDTO> findByEmail(String email) {
-        return patientRepository.findByEmail(email)
-                .map(this::convertToPatientDto);
+        return patientCache.getByEmail(email, () -> patientRepository.findByEmail(email)
+                .map(DtoConversions::toPatientDto));
     }
 
-    @Transactional(readOnly = true)
+    @Transactional(propagation = Propagation.SUPPORTS)
     public Optional<PatientDTO> findByTelephone(Integer telephone) {
-        return patientRepository.findByTelephone(telephone)
-                .map(this::convertToPatientDto);
+        return patientCache.getByTelephone(telephone, () -> patientRepository.findByTelephone(telephone)
+                .map(DtoConversions::toPatientDto));
     }
 
     @Transactional(readOnly = true)
     public List<PatientDTO> findByStade(stadePatient stade) {
         return patientRepository.findAllByStade(stade).stream()
-                .map(this::convertToPatientDto)
+                .map(DtoConversions::toPatientDto)
                 .collect(Collectors.toList());
     }
 
     @Transactional(readOnly = true)
     public List<PatientDTO> findByTraitement(String traitement) {
         return patientRepository.findByTraitementSuivieContaining(traitement).stream()
-                .map(this::convertToPatientDto)
+                .map(DtoConversions::toPatientDto)
                 .collect(Collectors.toList());
     }
 
@@ -282,102 +260,162 @@ public class PatientService {
         // Adapt query based on non-null parameters to allow flexible filtering
         // If all are null, it will return all patients
         return patientRepository.findByNomAndStadeAndTraitementSuivieContaining(nom, stade, traitement).stream()
-                .map(this::convertToPatientDto)
+                .map(DtoConversions::toPatientDto)
                 .collect(Collectors.toList());
     }
 
-    // --- Advanced Operations ---
+    // --- Summary views (PatientSumDTO) ---
+    // Read as records by constructor expressions, plus one query per SUMMARY_CHUNK_SIZE patients for their
+    // treatments: no Patients entity is created, so nothing is tracked nor dirty-checked
 
     @Transactional(readOnly = true)
+    public CursorPage<PatientSumDTO> getPatientSummariesPage(String cursor, Integer size) {
+        int pageSize = paginationProperties.resolve(size);
+        long afterId = CursorPagination.decode("patients", cursor);
+        List<PatientSummaryRow> rows = patientRepository.findSummariesByIdGreaterThan(afterId, Limit.of(pageSize + 1));
+        Map<Long, List<String>> traitements = findTraitements(rows.subList(0, Math.min(rows.size(), pageSize)));
+        return CursorPagination.toPage("patients", rows, pageSize, PatientSummaryRow::id, row -> toSummary(row, traitements));
+    }
+
+    @Transactional(readOnly = true)
+    public List<PatientSumDTO> findSummariesByStade(stadePatient stade) {
+        return toSummaries(patientRepository.findSummariesByStade(stade));
+    }
+
+    @Transactional(readOnly = true)
+    public List<PatientSumDTO> findSummariesByNomAndStadeAndTraitement(String nom, stadePatient stade, String traitement) {
+        return toSummaries(patientRepository.findSummariesByNomAndStadeAndTraitementSuivieContaining(nom, stade, traitement));
+    }
+
+    private List<PatientSumDTO> toSummaries(List<PatientSummaryRow> rows) {
+        Map<Long, List<String>> traitements = findTraitements(rows);
+        return rows.stream().map(row -> toSummary(row, traitements)).toList();
+    }
+
+    private Map<Long, List<String>> findTraitements(List<PatientSummaryRow> rows) {
+        List<Long> ids = rows.stream().map(PatientSummaryRow::id).toList();
+        Map<Long, List<String>> traitements = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += SUMMARY_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + SUMMARY_CHUNK_SIZE, ids.size()));
+            for (Object[] row : patientRepository.findTraitementRowsByPatientIds(chunk)) {
+                traitements.computeIfAbsent((Long) row[0], id -> new ArrayList<>()).add((String) row[1]);
+            }
+        }
+        return traitements;
+    }
+
+    private static PatientSumDTO toSummary(PatientSummaryRow row, Map<Long, List<String>> traitements) {
+        return new PatientSumDTO(row.id(), row.nom(), row.prenom(), row.telephone(), row.stade(), row.groupeSanguin(),
+                traitements.getOrDefault(row.id(), List.of()));
+    }
+
+    /**
+     * Full-text search over nom, prenom, symptomes and traitements, ranked by relevance.
+     * Matching ignores case and accents and tolerates typos (see PatientSearchIndex).
+     * @param text The words to search for, all of which must match.
+     * @param size The maximum number of patients, null for the configured default.
+     * @return The matching patients, best match first.
+     * @throws IllegalArgumentException if the text contains no word.
+     */
+    // The index is queried first, outside any transaction (see PatientSearchIndex.search), then the
+    // patients are read in a read-only one: a search holds one connection at a time
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<PatientDTO> searchText(String text, Integer size) {
+        List<Long> ids = patientSearchIndex.search(text, paginationProperties.resolve(size));
+        TransactionTemplate lookup = new TransactionTemplate(transactionManager);
+        lookup.setReadOnly(true);
+        return lookup.execute(status -> {
+            // One query for the page, in index order; IDs deleted meanwhile are skipped
+            Map<Long, Patients> patients = patientRepository.findAllById(ids).stream()
+                    .collect(Collectors.toMap(Patients::getId, Function.identity()));
+            return ids.stream()
+                    .map(patients::get)
+                    .filter(Objects::nonNull)
+                    .map(DtoConversions::toPatientDto)
+                    .toList();
+        });
+    }
+
+    // --- Advanced Operations ---
+
+    // Served from the in-memory counters of StatisticsEngine: no query runs, so no transaction is opened
+    @Transactional(propagation = Propagation.SUPPORTS)
     public Map<String, Object> getPatientStats() {
+        StatisticsEngine.PatientCounts counts = statisticsEngine.patientCounts();
         Map<String, Object> stats = new HashMap<>();
 
-        stats.put("totalPatients", patientRepository.count());
-        stats.put("distinctStadesCount", patientRepository.countDistinctStades());
+        stats.put("totalPatients", counts.total());
+        stats.put("distinctStadesCount", (long) counts.byStade().size());
 
-        List<Object[]> patientsByStade = patientRepository.countPatientsByStade();
-        Map<String, Long> stadeCounts = patientsByStade.stream()
-            .collect(Collectors.toMap(
-                obj -> ((stadePatient) obj[0]).name(), // Cast to enum and get its name as String
-                obj -> (Long) obj[1]
-            ));
+        Map<String, Long> stadeCounts = new HashMap<>();
+        counts.byStade().forEach((stade, count) -> stadeCounts.put(stade.name(), count));
         stats.put("patientsByStade", stadeCounts);
 
-        // Corrected usage for countByStade (assuming CRITIQUE is a specific enum value)
-        // Ensure stadePatient.CRITIQUE matches an actual enum value in your enum
-        stats.put("criticalPatientsCount", patientRepository.countByStade(stadePatient.STADE_IV));
+        stats.put("criticalPatientsCount", counts.byStade().getOrDefault(stadePatient.STADE_IV, 0L));
 
-        stats.put("patientsWithSymptomsRecorded", patientRepository.countBySymptomesManifesterIsNotEmpty());
-        stats.put("patientsUnderTreatment", patientRepository.countByTraitementSuivieIsNotEmpty());
+        stats.put("patientsWithSymptomsRecorded", counts.withSymptomes());
+        stats.put("patientsUnderTreatment", counts.underTreatment());
 
         return stats;
     }
 
+    /**
+     * Applies a PATCH body to a patient. Only the properties whose value changes are set and the links
+     * are reconciled only if maladieIds differs, so a patch repeating the current values writes nothing
+     * and publishes no event.
+     * @param id The ID of the patient to update.
+     * @param patch The fields to change, already type-checked when the body was read.
+     * @param expectedVersion The version the client read (If-Match), null for an unconditional update.
+     * @return The patient after the update, or empty if it does not exist.
+     * @throws IllegalArgumentException if one of the maladieIds does not exist.
+     * @throws ObjectOptimisticLockingFailureException if the patient is no longer at expectedVersion, or
+     *         was updated by a concurrent transaction.
+     */
     @Transactional
-    public Optional<PatientDTO> partialUpdatePatient(Long id, Map<String, Object> updates) {
+    public Optional<PatientDTO> partialUpdatePatient(Long id, PatientPatch patch, Long expectedVersion) {
+        return applyPatch(id, patch, expectedVersion).map(patient -> {
+            patientRepository.flush(); // The returned version is the one written
+            return DtoConversions.toPatientDto(patient);
+        });
+    }
+
+    /**
+     * partialUpdatePatient without the flush and the conversion, for PatientWriteBehind: the UPDATEs of a
+     * batch are sent together when its transaction commits.
+     */
+    @Transactional
+    Optional<Patients> applyPatch(Long id, PatientPatch patch, Long expectedVersion) {
         return patientRepository.findById(id).map(patient -> {
-            updates.forEach((key, value) -> {
-                switch (key) {
-                    case "nom": patient.setNom((String) value); break;
-                    case "prenom": patient.setPrenom((String) value); break;
-                    case "email": patient.setEmail((String) value); break;
-                    case "telephone":
-                        if (value instanceof Number) patient.setTelephone(((Number) value).intValue());
-                        break;
-                    case "numUrgence":
-                        if (value instanceof Number) patient.setNum_urgence(((Number) value).intValue());
-                        break;
-                    case "groupeSanguin": patient.setGroupeSanguin((String) value); break;
-                    case "stade": patient.setStade(stadePatient.valueOf((String) value)); break; // Convert String to enum
-                    case "symptomesManifester":
-                        if (value instanceof Iterable<?>) {
-                            Set<String> symptomes = new HashSet<>();
-                            for (Object obj : (Iterable<?>) value) {
-                                symptomes.add(obj != null ? obj.toString() : null);
-                            }
-                            patient.setSymptomesManifester(symptomes);
-                        }
-                        break;
-                    case "traitementSuivie":
-                        if (value instanceof Iterable<?>) {
-                            Set<String> traitements = new HashSet<>();
-                            for (Object obj : (Iterable<?>) value) {
-                                traitements.add(obj != null ? obj.toString() : null);
-                            }
-                            patient.setTraitementSuivie(traitements);
-                        }
-                        break;
-                    case "maladieIds":
-                        // Handling ManyToMany update for partial update:
-                        // Clear existing and add new, or perform a more granular diff if needed
-                        patient.getSetMaladies().clear();
-                        List<?> rawList = (List<?>) value;
-                        List<Long> newMaladieIds = rawList.stream()
-                                .map(obj -> {
-                                    if (obj instanceof Number) {
-                                        return ((Number) obj).longValue();
-                                    } else {
-                                        return Long.valueOf(obj.toString());
-                                    }
-                                })
-                                .collect(Collectors.toList());
-                        if (newMaladieIds != null && !newMaladieIds.isEmpty()) {
-                            List<Maladies> maladies = maladieRepository.findAllById(newMaladieIds);
-                            // Error handling for missing IDs could be added here
-                            patient.getSetMaladies().addAll(maladies);
-                            // Synchronize bidirectional relationship
-                            for (Maladies maladie : maladies) {
-                                if (maladie.getPatientsAffecter() == null) maladie.setPatientsAffecter(new HashSet<>());
-                                maladie.getPatientsAffecter().add(patient);
-                            }
-                        }
-                        break;
-                }
-            });
-            return convertToPatientDto(patientRepository.save(patient));
+            OptimisticLocks.checkVersion(Patients.class, id, expectedVersion, patient.getVersion());
+            Set<Long> linkedIds = maladieLinkReconciler.linkedIds(id);
+            PatientState before = PatientState.of(patient, linkedIds);
+            boolean changed = patch.applyTo(patient);
+            Set<Long> maladieIds = patch.maladieIds()
+                    .map(ids -> maladieLinkReconciler.reconcile(id, linkedIds, ids))
+                    .orElse(linkedIds);
+            boolean linksChanged = !maladieIds.equals(linkedIds);
+            if (!changed && !linksChanged) {
+                return patient;
+            }
+            if (!changed) {
+                // The links are rows of patient_maladie, unseen by the dirty checking: the version is
+                // incremented explicitly, right away (a versioned UPDATE, without SELECT ... FOR UPDATE)
+                forceVersionIncrement(patient);
+            }
+            Patients savedPatient = patientRepository.save(patient);
+            eventPublisher.publishEvent(PatientChangedEvent.updated(before, PatientState.of(savedPatient, maladieIds)));
+            return savedPatient;
         });
     }
 
+    private void forceVersionIncrement(Patients patient) {
+        try {
+            entityManager.lock(patient, LockModeType.PESSIMISTIC_FORCE_INCREMENT);
+        } catch (OptimisticLockException e) {
+            throw new ObjectOptimisticLockingFailureException(Patients.class, patient.getId(), e);
+        }
+    }
+
     @Transactional(readOnly = true)
     public void afficherDossier(Long id_patient){
         patientRepository.findById(id_patient).ifPresentOrElse(p -> {
@@ -412,7 +450,7 @@ public class PatientService {
                         patient.getSetMaladies().size();
                     }
                     return patient.getSetMaladies().stream()
-                            .map(this::convertToMaladieDtoForPatient) // Custom conversion for nested maladie DTO
+                            .map(DtoConversions::toMaladieDto) // Custom conversion for nested maladie DTO
                             .collect(Collectors.toList());
                 });
     }
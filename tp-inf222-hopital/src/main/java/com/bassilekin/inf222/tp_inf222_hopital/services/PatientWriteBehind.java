@@ -0,0 +1,307 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientPatch;
+import com.bassilekin.inf222.tp_inf222_hopital.config.WriteBehindProperties;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Write-behind queue for the partial updates that can be applied a little later, such as the symptoms
+ * and stage sent in bursts by bedside devices. A patch submitted for a patient that already has one
+ * pending is merged into it (the later value of a field wins), and the workers apply the pending
+ * patches with PatientService.applyPatch, up to batchSize patients per transaction, so a burst costs one
+ * commit and batched UPDATEs instead of one transaction per request.
+ * Each patient belongs to one shard, flushed by one worker in submission order, so its patches are
+ * never applied out of order. Beyond the capacity, new patients are refused and the caller answers 429.
+ * A synchronous update of a patient calls flushPending first, so a patch queued before it cannot be
+ * applied after it and overwrite its values.
+ * Pending patches live in memory only: they are lost if the process dies before they are flushed.
+ * Metrics: app.patients.write-behind.depth, .flush (per transaction), .lag (submission to commit) and
+ * .patches tagged with their outcome.
+ */
+@Component
+public class PatientWriteBehind {
+
+    private static final Logger logger = LoggerFactory.getLogger(PatientWriteBehind.class);
+
+    private final WriteBehindProperties properties;
+    private final PatientService patientService;
+    private final TransactionTemplate transactionTemplate;
+    private final Shard[] shards;
+    private final List<Thread> workers = new ArrayList<>();
+    // Patients with a pending patch, over all the shards
+    private final AtomicInteger depth = new AtomicInteger();
+    private volatile boolean running = true;
+
+    private final Timer flushTimer;
+    private final Timer lagTimer;
+    private final Counter accepted;
+    private final Counter merged;
+    private final Counter rejected;
+    private final Counter applied;
+    private final Counter missing;
+    private final Counter failed;
+
+    // Patches merged for one patient, applied together
+    private static final class PendingPatch {
+        PatientPatch patch;
+        final long submittedNanos = System.nanoTime();
+
+        PendingPatch(PatientPatch patch) {
+            this.patch = patch;
+        }
+    }
+
+    private static final class Shard {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition notEmpty = lock.newCondition();
+        final Condition closing = lock.newCondition();
+        // Guarded by lock, in order of first submission
+        final LinkedHashMap<Long, PendingPatch> pending = new LinkedHashMap<>();
+        // Held while patches taken from the shard are applied, by its worker or by flushPending
+        final ReentrantLock flushLock = new ReentrantLock();
+    }
+
+    public PatientWriteBehind(WriteBehindProperties properties, PatientService patientService,
+            PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.patientService = patientService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.shards = new Shard[Math.max(1, properties.workers())];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard();
+        }
+        Gauge.builder("app.patients.write-behind.depth", depth, AtomicInteger::get)
+                .description("Patients with a patch waiting to be flushed")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("app.patients.write-behind.flush")
+                .description("Transactions applying a batch of pending patches")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.lagTimer = Timer.builder("app.patients.write-behind.lag")
+                .description("Time from the first submission of a patch to its commit")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.accepted = outcome(meterRegistry, "accepted");
+        this.merged = outcome(meterRegistry, "merged");
+        this.rejected = outcome(meterRegistry, "rejected");
+        this.applied = outcome(meterRegistry, "applied");
+        this.missing = outcome(meterRegistry, "missing");
+        this.failed = outcome(meterRegistry, "failed");
+        if (properties.enabled()) {
+            for (int i = 0; i < shards.length; i++) {
+                Shard shard = shards[i];
+                workers.add(Thread.ofPlatform().name("patient-write-behind-" + i).start(() -> work(shard)));
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.enabled();
+    }
+
+    /**
+     * Queues a partial update, merged into the one already pending for the patient if any.
+     * @param id The patient ID; an unknown patient is only detected when the patch is flushed.
+     * @param patch The fields to change, type-checked when the body was read; applied unconditionally,
+     *              as a conditional (If-Match) update needs its answer before the response.
+     * @return false if the queue is full and the patch was not taken.
+     * @throws RejectedExecutionException if the queue is closed (application shutting down).
+     */
+    public boolean submit(Long id, PatientPatch patch) {
+        Shard shard = shardOf(id);
+        shard.lock.lock();
+        try {
+            // Checked under the lock: close() takes it after clearing running, so a patch taken here is
+            // seen by the worker before it stops
+            if (!running) {
+                rejected.increment();
+                throw new RejectedExecutionException("The write-behind queue is closed");
+            }
+            PendingPatch pending = shard.pending.get(id);
+            if (pending == null) {
+                if (depth.getAndUpdate(d -> d < properties.capacity() ? d + 1 : d) >= properties.capacity()) {
+                    rejected.increment();
+                    return false;
+                }
+                shard.pending.put(id, new PendingPatch(patch));
+                shard.notEmpty.signal();
+                accepted.increment();
+            } else {
+                pending.patch = pending.patch.merge(patch);
+                merged.increment();
+            }
+            return true;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the patch pending for the patient, if any, in the calling thread; waits first for the batch
+     * of its shard being applied, which may hold an older patch of the patient. Called before a
+     * synchronous update, which must not be overwritten by a patch submitted before it.
+     * @param id The patient ID.
+     */
+    public void flushPending(Long id) {
+        if (!properties.enabled()) {
+            return;
+        }
+        Shard shard = shardOf(id);
+        shard.flushLock.lock();
+        try {
+            PendingPatch pending;
+            shard.lock.lock();
+            try {
+                pending = shard.pending.remove(id);
+            } finally {
+                shard.lock.unlock();
+            }
+            if (pending != null) {
+                depth.decrementAndGet();
+                flush(Map.of(id, pending));
+            }
+        } finally {
+            shard.flushLock.unlock();
+        }
+    }
+
+    private Shard shardOf(Long id) {
+        return shards[(int) Math.floorMod(id, (long) shards.length)];
+    }
+
+    private void work(Shard shard) {
+        while (true) {
+            shard.lock.lock();
+            try {
+                while (shard.pending.isEmpty()) {
+                    if (!running) {
+                        return;
+                    }
+                    shard.notEmpty.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                shard.lock.unlock();
+            }
+            linger(shard);
+            shard.flushLock.lock();
+            try {
+                flush(take(shard));
+            } finally {
+                shard.flushLock.unlock();
+            }
+        }
+    }
+
+    // Lets the patches of a burst arrive, to be merged or flushed in the same transaction; cut short by close()
+    private void linger(Shard shard) {
+        long remaining = properties.linger().toNanos();
+        shard.lock.lock();
+        try {
+            while (running && remaining > 0) {
+                remaining = shard.closing.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    private Map<Long, PendingPatch> take(Shard shard) {
+        Map<Long, PendingPatch> batch = new LinkedHashMap<>();
+        shard.lock.lock();
+        try {
+            Iterator<Map.Entry<Long, PendingPatch>> pending = shard.pending.entrySet().iterator();
+            while (pending.hasNext() && batch.size() < properties.batchSize()) {
+                Map.Entry<Long, PendingPatch> entry = pending.next();
+                batch.put(entry.getKey(), entry.getValue());
+                pending.remove();
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+        depth.addAndGet(-batch.size());
+        return batch;
+    }
+
+    private void flush(Map<Long, PendingPatch> batch) {
+        long start = System.nanoTime();
+        try {
+            int found = transactionTemplate.execute(status -> {
+                int updated = 0;
+                for (Map.Entry<Long, PendingPatch> entry : batch.entrySet()) {
+                    if (patientService.applyPatch(entry.getKey(), entry.getValue().patch, null).isPresent()) {
+                        updated++;
+                    }
+                }
+                return updated;
+            });
+            long committed = System.nanoTime();
+            flushTimer.record(committed - start, TimeUnit.NANOSECONDS);
+            batch.values().forEach(patch -> lagTimer.record(committed - patch.submittedNanos, TimeUnit.NANOSECONDS));
+            applied.increment(found);
+            missing.increment(batch.size() - found);
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                failed.increment();
+                logger.warn("Dropped the pending patch of patient {}", batch.keySet().iterator().next(), e);
+                return;
+            }
+            // One invalid patch (e.g. an unknown maladie) rolls the whole batch back: retried one by one,
+            // in the same order, so that only the invalid one is lost
+            batch.forEach((id, patch) -> flush(Map.of(id, patch)));
+        }
+    }
+
+    /**
+     * Stops the workers once every pending patch has been flushed.
+     */
+    @PreDestroy
+    void close() throws InterruptedException {
+        running = false;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.notEmpty.signalAll();
+                shard.closing.signalAll();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private static Counter outcome(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("app.patients.write-behind.patches")
+                .description("Patches submitted to the write-behind queue, by outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,339 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+import com.bassilekin.inf222.tp_inf222_hopital.events.ImageCountChangedEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.events.MaladieChangedEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.events.MaladieChangedEvent.MaladieState;
+import com.bassilekin.inf222.tp_inf222_hopital.events.PatientChangedEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.events.PatientChangedEvent.PatientState;
+import com.bassilekin.inf222.tp_inf222_hopital.events.StatisticsReconciledEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.ImageRepository;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.MaladieRepository;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.PatientRepository;
+
+/**
+ * Keeps the counters behind /patients/stats and /maladies/stats in memory.
+ * The counters are loaded from the database on first use, then moved by the events published by the
+ * write methods once their transaction has committed, so reading the statistics runs no SQL.
+ * They are rebuilt from the database on a schedule (app.stats.reconcile-interval) to correct any drift,
+ * e.g. rows changed by another instance or directly in the database.
+ */
+@Component
+public class StatisticsEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatisticsEngine.class);
+
+    // Order of the listeners moving the counters; the caches of the statistics are invalidated after them
+    public static final int LISTENER_ORDER = 0;
+
+    private final PatientRepository patientRepository;
+    private final MaladieRepository maladieRepository;
+    private final ImageRepository imageRepository;
+    // Runs all the reads of a reconciliation on one snapshot of the database
+    private final TransactionTemplate snapshotTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+
+    // Serializes loads and reconciliations, which read the database without holding the counters lock
+    // (a lock rather than synchronized, which would pin a virtual thread during the queries)
+    private final ReentrantLock reconcileLock = new ReentrantLock();
+
+    // Guarded by this; null until the first load
+    private Counters counters;
+    // Events committed while a reconciliation reads the database, replayed on its result
+    private List<Object> pendingEvents;
+
+    public StatisticsEngine(PatientRepository patientRepository, MaladieRepository maladieRepository, ImageRepository imageRepository,
+            PlatformTransactionManager transactionManager, ApplicationEventPublisher eventPublisher) {
+        this.patientRepository = patientRepository;
+        this.maladieRepository = maladieRepository;
+        this.imageRepository = imageRepository;
+        this.snapshotTemplate = new TransactionTemplate(transactionManager);
+        // Never joins the caller's transaction, whose uncommitted writes would be read and then replayed
+        snapshotTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        snapshotTemplate.setReadOnly(true);
+        snapshotTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.eventPublisher = eventPublisher;
+    }
+
+    public record PatientCounts(long total, Map<stadePatient, Long> byStade, long withSymptomes, long underTreatment) {
+    }
+
+    public record MaladieCounts(long total, Map<String, Long> byType, long traitementEntries, long distinctSymptomes,
+            long distinctTraitements, Map<String, Long> patientsByNom, long images) {
+    }
+
+    public PatientCounts patientCounts() {
+        Counters current = loaded();
+        synchronized (this) {
+            return new PatientCounts(current.patients, Map.copyOf(current.patientsByStade),
+                    current.patientsWithSymptomes, current.patientsUnderTreatment);
+        }
+    }
+
+    public MaladieCounts maladieCounts() {
+        Counters current = loaded();
+        synchronized (this) {
+            // Keyed by name like the original query; two maladies sharing a name are summed
+            Map<String, Long> patientsByNom = new HashMap<>();
+            current.patientsByMaladie.forEach((id, count) -> {
+                MaladieState maladie = current.maladies.get(id);
+                if (maladie != null) {
+                    patientsByNom.merge(maladie.nom(), count, Long::sum);
+                }
+            });
+            return new MaladieCounts(current.maladies.size(), new HashMap<>(current.maladiesByType),
+                    sumIgnoringNull(current.traitementOccurrences), sizeIgnoringNull(current.symptomeOccurrences),
+                    sizeIgnoringNull(current.traitementOccurrences), patientsByNom, current.images);
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(LISTENER_ORDER)
+    public void onPatientChanged(PatientChangedEvent event) {
+        apply(event);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(LISTENER_ORDER)
+    public void onMaladieChanged(MaladieChangedEvent event) {
+        apply(event);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(LISTENER_ORDER)
+    public void onImageCountChanged(ImageCountChangedEvent event) {
+        apply(event);
+    }
+
+    /**
+     * Rebuilds the counters from the database, read in one read-only REPEATABLE READ transaction so that
+     * all the queries see the same snapshot. The events received before its first query were committed
+     * before the snapshot and are part of it; only the ones received afterwards are replayed on the new
+     * counters. An event whose transaction committed just before the snapshot but whose listener runs
+     * after the first query is still counted twice, until the next run.
+     */
+    @Scheduled(fixedDelayString = "${app.stats.reconcile-interval:PT5M}", initialDelayString = "${app.stats.reconcile-interval:PT5M}")
+    public void reconcile() {
+        reconcileLock.lock();
+        try {
+            synchronized (this) {
+                pendingEvents = new ArrayList<>();
+            }
+            Snapshot snapshot;
+            try {
+                snapshot = snapshotTemplate.execute(status -> readFromDatabase());
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    pendingEvents = null;
+                }
+                throw e;
+            }
+            Counters fresh = snapshot.counters();
+            boolean drifted;
+            synchronized (this) {
+                pendingEvents.subList(snapshot.eventsRead(), pendingEvents.size()).forEach(fresh::apply);
+                pendingEvents = null;
+                drifted = counters != null && !counters.sameAs(fresh);
+                counters = fresh;
+            }
+            if (drifted) {
+                logger.warn("In-memory statistics had drifted from the database, counters rebuilt");
+                // Published once the new counters are visible, like the events of the write methods
+                eventPublisher.publishEvent(new StatisticsReconciledEvent());
+            }
+        } finally {
+            reconcileLock.unlock();
+        }
+    }
+
+    private Counters loaded() {
+        synchronized (this) {
+            if (counters != null) {
+                return counters;
+            }
+        }
+        reconcileLock.lock();
+        try {
+            // Another thread may have loaded the counters while this one was waiting
+            synchronized (this) {
+                if (counters != null) {
+                    return counters;
+                }
+            }
+            reconcile();
+            synchronized (this) {
+                return counters;
+            }
+        } finally {
+            reconcileLock.unlock();
+        }
+    }
+
+    private synchronized void apply(Object event) {
+        if (pendingEvents != null) {
+            pendingEvents.add(event);
+        }
+        // Before the first load the event is already part of what the load will read
+        if (counters != null) {
+            counters.apply(event);
+        }
+    }
+
+    // The counters read, and the number of pending events already part of what they were read from
+    private record Snapshot(Counters counters, int eventsRead) {
+    }
+
+    private Snapshot readFromDatabase() {
+        int eventsRead;
+        synchronized (this) {
+            // The snapshot is taken by the first query, after these events were committed
+            eventsRead = pendingEvents.size();
+        }
+        Counters fresh = new Counters();
+        fresh.patients = patientRepository.count();
+        for (Object[] row : patientRepository.countPatientsByStade()) {
+            if (row[0] != null) {
+                fresh.patientsByStade.put((stadePatient) row[0], (Long) row[1]);
+            }
+        }
+        fresh.patientsWithSymptomes = patientRepository.countBySymptomesManifesterIsNotEmpty();
+        fresh.patientsUnderTreatment = patientRepository.countByTraitementSuivieIsNotEmpty();
+
+        Map<Long, Set<String>> symptomes = groupByMaladie(maladieRepository.findAllSymptomeRows());
+        Map<Long, Set<String>> traitements = groupByMaladie(maladieRepository.findAllTraitementRows());
+        for (Object[] row : maladieRepository.findAllIdNomType()) {
+            Long id = (Long) row[0];
+            fresh.add(new MaladieState(id, (String) row[1], (String) row[2],
+                    symptomes.getOrDefault(id, Set.of()), traitements.getOrDefault(id, Set.of())), 1);
+        }
+        for (Object[] row : maladieRepository.countPatientsPerDisease()) {
+            fresh.patientsByMaladie.put((Long) row[0], (Long) row[1]);
+        }
+        fresh.images = imageRepository.count();
+        return new Snapshot(fresh, eventsRead);
+    }
+
+    private static Map<Long, Set<String>> groupByMaladie(List<Object[]> rows) {
+        Map<Long, Set<String>> grouped = new HashMap<>();
+        for (Object[] row : rows) {
+            grouped.computeIfAbsent((Long) row[0], id -> new HashSet<>()).add((String) row[1]);
+        }
+        return grouped;
+    }
+
+    // COUNT(DISTINCT x) and joins on element collections skip null elements
+    private static long sizeIgnoringNull(Map<String, Long> occurrences) {
+        return occurrences.size() - (occurrences.containsKey(null) ? 1 : 0);
+    }
+
+    private static long sumIgnoringNull(Map<String, Long> occurrences) {
+        long sum = 0;
+        for (Map.Entry<String, Long> entry : occurrences.entrySet()) {
+            if (entry.getKey() != null) {
+                sum += entry.getValue();
+            }
+        }
+        return sum;
+    }
+
+    private static <K> void increment(Map<K, Long> counts, K key, long delta) {
+        counts.compute(key, (k, count) -> {
+            long updated = (count != null ? count : 0) + delta;
+            return updated != 0 ? updated : null;
+        });
+    }
+
+    private static final class Counters {
+
+        long patients;
+        final Map<stadePatient, Long> patientsByStade = new EnumMap<>(stadePatient.class);
+        long patientsWithSymptomes;
+        long patientsUnderTreatment;
+        final Map<Long, Long> patientsByMaladie = new HashMap<>();
+        final Map<Long, MaladieState> maladies = new HashMap<>();
+        final Map<String, Long> maladiesByType = new HashMap<>();
+        final Map<String, Long> symptomeOccurrences = new HashMap<>();
+        final Map<String, Long> traitementOccurrences = new HashMap<>();
+        long images;
+
+        void apply(Object event) {
+            switch (event) {
+                case PatientChangedEvent patient -> {
+                    add(patient.before(), -1);
+                    add(patient.after(), 1);
+                }
+                case MaladieChangedEvent maladie -> {
+                    add(maladie.before(), -1);
+                    add(maladie.after(), 1);
+                    if (maladie.after() == null && maladie.before() != null) {
+                        // Deleting a maladie removes its links to the patients
+                        patientsByMaladie.remove(maladie.before().id());
+                    }
+                }
+                case ImageCountChangedEvent image -> images += image.delta();
+                default -> throw new IllegalArgumentException("Unexpected event " + event);
+            }
+        }
+
+        void add(PatientState patient, int sign) {
+            if (patient == null) {
+                return;
+            }
+            patients += sign;
+            if (patient.stade() != null) {
+                increment(patientsByStade, patient.stade(), sign);
+            }
+            patientsWithSymptomes += patient.hasSymptomes() ? sign : 0;
+            patientsUnderTreatment += patient.underTreatment() ? sign : 0;
+            patient.maladieIds().forEach(id -> increment(patientsByMaladie, id, sign));
+        }
+
+        void add(MaladieState maladie, int sign) {
+            if (maladie == null) {
+                return;
+            }
+            if (sign > 0) {
+                maladies.put(maladie.id(), maladie);
+            } else {
+                maladies.remove(maladie.id());
+            }
+            increment(maladiesByType, maladie.type(), sign);
+            maladie.symptomes().forEach(symptome -> increment(symptomeOccurrences, symptome, sign));
+            maladie.traitements().forEach(traitement -> increment(traitementOccurrences, traitement, sign));
+        }
+
+        boolean sameAs(Counters other) {
+            return patients == other.patients
+                    && patientsByStade.equals(other.patientsByStade)
+                    && patientsWithSymptomes == other.patientsWithSymptomes
+                    && patientsUnderTreatment == other.patientsUnderTreatment
+                    && patientsByMaladie.equals(other.patientsByMaladie)
+                    && Objects.equals(maladies.keySet(), other.maladies.keySet())
+                    && maladiesByType.equals(other.maladiesByType)
+                    && symptomeOccurrences.equals(other.symptomeOccurrences)
+                    && traitementOccurrences.equals(other.traitementOccurrences)
+                    && images == other.images;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+/**
+ * Result of writing content to a {@link BlobStore}.
+ * @param hash SHA-256 digest of the content, hex encoded; it is also the key of the blob.
+ * @param size Length of the content in bytes.
+ */
+public record StoredBlob(String hash, long size) {}
@@ -0,0 +1,222 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieMatchDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.events.MaladieChangedEvent;
+import com.bassilekin.inf222.tp_inf222_hopital.events.MaladieChangedEvent.MaladieState;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.MaladieRepository;
+
+/**
+ * In-memory inverted index from symptom to the maladies that list it, for differential lookups.
+ * Each indexed maladie gets a slot, and each symptom a BitSet of slots, so ranking the maladies
+ * against a handful of symptoms only walks their bitsets: no query runs and no entity is loaded.
+ * Symptoms are compared lowercased and without accents. The index is built from the database at
+ * startup, then updated by the maladie events once their transaction has committed.
+ */
+@Component
+public class SymptomeIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SymptomeIndex.class);
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private final MaladieRepository maladieRepository;
+
+    // Readers rank concurrently; events and rebuilds take the write lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Maladie of each slot, null for a free slot
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<Long, Integer> slotById = new HashMap<>();
+    private final BitSet freeSlots = new BitSet();
+    private final Map<String, BitSet> slotsBySymptome = new HashMap<>();
+    // Events committed while a rebuild reads the database, replayed on its result
+    private List<MaladieChangedEvent> pendingEvents;
+
+    private record Entry(long id, String nom, Set<String> symptomes) {
+    }
+
+    public SymptomeIndex(MaladieRepository maladieRepository) {
+        this.maladieRepository = maladieRepository;
+    }
+
+    /**
+     * Rebuilds the index from the database. Events committed meanwhile are replayed on the result.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            pendingEvents = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Map<Long, String> noms = new HashMap<>();
+        Map<Long, Set<String>> symptomes = new HashMap<>();
+        try {
+            for (Object[] row : maladieRepository.findAllIdNomType()) {
+                noms.put((Long) row[0], (String) row[1]);
+            }
+            for (Object[] row : maladieRepository.findAllSymptomeRows()) {
+                symptomes.computeIfAbsent((Long) row[0], id -> new HashSet<>()).add((String) row[1]);
+            }
+        } catch (RuntimeException e) {
+            // Keep the current index, still moved by the events
+            lock.writeLock().lock();
+            try {
+                pendingEvents = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        int symptomeCount;
+        lock.writeLock().lock();
+        try {
+            entries.clear();
+            slotById.clear();
+            freeSlots.clear();
+            slotsBySymptome.clear();
+            noms.forEach((id, nom) -> put(id, nom, symptomes.getOrDefault(id, Set.of())));
+            pendingEvents.forEach(this::apply);
+            pendingEvents = null;
+            symptomeCount = slotsBySymptome.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("Symptom index built with {} maladies and {} symptoms", noms.size(), symptomeCount);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMaladieChanged(MaladieChangedEvent event) {
+        lock.writeLock().lock();
+        try {
+            if (pendingEvents != null) {
+                pendingEvents.add(event);
+            }
+            apply(event);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ranks the maladies sharing at least one symptom with the given ones: by number of shared
+     * symptoms, then by the share of the maladie's symptoms they cover, then by ID.
+     * @param symptomes The symptoms to match, e.g. those of a patient.
+     * @param limit The maximum number of maladies returned.
+     * @return The best matching maladies first.
+     */
+    public List<MaladieMatchDTO> rank(Collection<String> symptomes, int limit) {
+        // Normalized symptom -> spelling of the caller, used in the result
+        Map<String, String> queried = new LinkedHashMap<>();
+        for (String symptome : symptomes) {
+            if (symptome != null) {
+                queried.putIfAbsent(normalize(symptome), symptome);
+            }
+        }
+        lock.readLock().lock();
+        try {
+            int[] shared = new int[entries.size()];
+            BitSet candidates = new BitSet();
+            for (String key : queried.keySet()) {
+                BitSet slots = slotsBySymptome.get(key);
+                if (slots != null) {
+                    candidates.or(slots);
+                    for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+                        shared[slot]++;
+                    }
+                }
+            }
+            Comparator<Integer> bestFirst = Comparator.<Integer>comparingInt(slot -> shared[slot]).reversed()
+                    .thenComparing(Comparator.<Integer>comparingDouble(slot -> (double) shared[slot] / entries.get(slot).symptomes().size()).reversed())
+                    .thenComparingLong(slot -> entries.get(slot).id());
+            return candidates.stream().boxed()
+                    .sorted(bestFirst)
+                    .limit(limit)
+                    .map(slot -> toMatch(entries.get(slot), queried))
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static MaladieMatchDTO toMatch(Entry entry, Map<String, String> queried) {
+        List<String> common = queried.entrySet().stream()
+                .filter(symptome -> entry.symptomes().contains(symptome.getKey()))
+                .map(Map.Entry::getValue)
+                .toList();
+        return new MaladieMatchDTO(entry.id(), entry.nom(), common, entry.symptomes().size());
+    }
+
+    // Called with the write lock held; replaying an event is harmless, each one sets or clears a whole maladie
+    private void apply(MaladieChangedEvent event) {
+        MaladieState after = event.after();
+        if (after == null) {
+            remove(event.before().id());
+        } else {
+            put(after.id(), after.nom(), after.symptomes());
+        }
+    }
+
+    private void put(Long id, String nom, Set<String> symptomes) {
+        remove(id);
+        Set<String> keys = new HashSet<>();
+        for (String symptome : symptomes) {
+            if (symptome != null) {
+                keys.add(normalize(symptome));
+            }
+        }
+        int slot = freeSlots.isEmpty() ? entries.size() : freeSlots.nextSetBit(0);
+        if (slot == entries.size()) {
+            entries.add(null);
+        }
+        freeSlots.clear(slot);
+        entries.set(slot, new Entry(id, nom, Set.copyOf(keys)));
+        slotById.put(id, slot);
+        for (String key : keys) {
+            slotsBySymptome.computeIfAbsent(key, k -> new BitSet()).set(slot);
+        }
+    }
+
+    private void remove(Long id) {
+        Integer slot = slotById.remove(id);
+        if (slot == null) {
+            return;
+        }
+        for (String key : entries.get(slot).symptomes()) {
+            BitSet slots = slotsBySymptome.get(key);
+            slots.clear(slot);
+            if (slots.isEmpty()) {
+                slotsBySymptome.remove(key);
+            }
+        }
+        entries.set(slot, null);
+        freeSlots.set(slot);
+    }
+
+    private static String normalize(String symptome) {
+        String decomposed = Normalizer.normalize(symptome.strip().toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("");
+    }
+}
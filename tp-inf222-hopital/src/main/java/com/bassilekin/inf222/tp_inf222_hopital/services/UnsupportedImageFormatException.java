@@ -0,0 +1,13 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the JDK image codecs cannot decode a stored image, so no derivative can be built.
+ */
+public class UnsupportedImageFormatException extends IOException {
+
+    public UnsupportedImageFormatException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,77 @@
+-- Schema of the entities as of this version, from an empty database or as an upgrade of the databases
+-- created before Flyway: by ddl-auto=update, or restored from dump.sql. spring.flyway.baseline-on-migrate
+-- marks those at version 0, so this script runs on all of them: each statement is a no-op on a schema
+-- that already has what it creates.
+-- The ID of the patients moves from an identity column to patients_seq; the PostgreSQL part of that
+-- change (existing identity, position of the sequence) is in db/vendor/postgresql/V1_1.
+
+create sequence if not exists patients_seq start with 1 increment by 50;
+
+create table if not exists MALADIES (
+    id bigint generated by default as identity,
+    type varchar(50),
+    nom varchar(100) not null,
+    primary key (id)
+);
+
+create table if not exists Maladies_symptomes (
+    Maladies_id bigint not null,
+    symptomes varchar(255),
+    constraint fk_maladies_symptomes_maladie foreign key (Maladies_id) references MALADIES
+);
+
+create table if not exists Maladies_traitements (
+    Maladies_id bigint not null,
+    traitements varchar(255),
+    constraint fk_maladies_traitements_maladie foreign key (Maladies_id) references MALADIES
+);
+
+create table if not exists IMAGES (
+    contentLength bigint,
+    id bigint generated by default as identity,
+    maladies_id bigint not null,
+    uploadedAt timestamp(6) with time zone,
+    contentHash varchar(64),
+    name varchar(255) unique,
+    type varchar(255),
+    primary key (id),
+    constraint fk_images_maladie foreign key (maladies_id) references MALADIES
+);
+
+-- Images stored before the blob store: their bytes stay in the data column of IMAGES, which this
+-- script does not create nor drop, until LegacyImageContentMigration moves them at startup
+alter table IMAGES add column if not exists contentHash varchar(64);
+alter table IMAGES add column if not exists contentLength bigint;
+alter table IMAGES add column if not exists uploadedAt timestamp(6) with time zone;
+
+create table if not exists PATIENTS (
+    groupeSanguin varchar(2),
+    num_urgence integer not null,
+    stade smallint check (stade between 0 and 4),
+    telephone integer unique,
+    id bigint not null,
+    email varchar(255) unique,
+    nom varchar(255),
+    prenom varchar(255),
+    primary key (id)
+);
+
+create table if not exists Patients_symptomesManifester (
+    Patients_id bigint not null,
+    symptomesManifester varchar(255),
+    constraint fk_patients_symptomes_patient foreign key (Patients_id) references PATIENTS
+);
+
+create table if not exists Patients_traitementSuivie (
+    Patients_id bigint not null,
+    traitementSuivie varchar(255),
+    constraint fk_patients_traitements_patient foreign key (Patients_id) references PATIENTS
+);
+
+create table if not exists patient_maladie (
+    maladie_id bigint not null,
+    patient_id bigint not null,
+    primary key (maladie_id, patient_id),
+    constraint fk_patient_maladie_maladie foreign key (maladie_id) references MALADIES,
+    constraint fk_patient_maladie_patient foreign key (patient_id) references PATIENTS
+);
@@ -0,0 +1,7 @@
+-- Version columns of the optimistic locking of PATIENTS and MALADIES (@Version).
+-- The existing rows start at 0, the value their first update checks. A database created by
+-- ddl-auto=update (default profile) already has them when it is first migrated.
+
+alter table PATIENTS add column if not exists version bigint default 0 not null;
+
+alter table MALADIES add column if not exists version bigint default 0 not null;
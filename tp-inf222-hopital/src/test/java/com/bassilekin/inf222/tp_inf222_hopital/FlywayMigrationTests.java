@@ -0,0 +1,77 @@
+package com.bassilekin.inf222.tp_inf222_hopital;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.sql.DataSource;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+/**
+ * Applies the migrations the way the prod profile does, then lets Hibernate validate the entities
+ * against the resulting schema: a mapping change without its migration fails here. The database
+ * starts as dump.sql left it, before Flyway, so the upgrade path is the one validated.
+ */
+@SpringBootTest(properties = {
+    // Own database, in PostgreSQL mode and validated with the PostgreSQL column types: the migrations
+    // are written for PostgreSQL
+    "spring.datasource.url=jdbc:h2:mem:flyway_migrations;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+    "spring.jpa.database-platform=org.hibernate.dialect.PostgreSQLDialect",
+    "spring.flyway.enabled=true",
+    "spring.flyway.baseline-on-migrate=true",
+    "spring.flyway.baseline-version=0",
+    // Common migrations only: H2 cannot create the trigram indexes of db/vendor/postgresql, which
+    // RepositoryQueryPlanTests applies on PostgreSQL
+    "spring.flyway.locations=classpath:db/migration",
+    "spring.jpa.hibernate.ddl-auto=validate"
+})
+class FlywayMigrationTests {
+
+    private static final String HISTORY =
+            "SELECT \"version\" FROM \"flyway_schema_history\" WHERE \"version\" IS NOT NULL AND \"success\" ORDER BY \"installed_rank\"";
+
+    @TestConfiguration
+    static class PreFlywayDatabase {
+
+        @Bean
+        FlywayMigrationStrategy fromPreFlywaySchema(DataSource dataSource) {
+            return flyway -> {
+                new ResourceDatabasePopulator(new ClassPathResource("pre-flyway-schema.sql")).execute(dataSource);
+                flyway.migrate();
+            };
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void migrationsUpgradeADatabaseCreatedBeforeFlyway() {
+        assertThat(jdbcTemplate.queryForList(HISTORY, String.class)).containsExactly("0", "1", "3");
+        // The rows are kept, and the bytes of the image were moved to the blob store at startup
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM patient_maladie WHERE patient_id = 7", Long.class)).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject("SELECT contentLength FROM IMAGES WHERE id = 1", Long.class)).isEqualTo(4);
+    }
+
+    @Test
+    void migrationsCreateTheSchemaOnAnEmptyDatabase() {
+        Flyway flyway = Flyway.configure()
+                .dataSource("jdbc:h2:mem:flyway_empty;MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "")
+                .locations("classpath:db/migration")
+                .baselineOnMigrate(true)
+                .baselineVersion("0")
+                .load();
+
+        assertThat(flyway.migrate().migrationsExecuted).isEqualTo(2);
+        assertThat(new JdbcTemplate(flyway.getConfiguration().getDataSource()).queryForList(HISTORY, String.class))
+                .containsExactly("1", "3");
+    }
+}
@@ -0,0 +1,105 @@
+package com.bassilekin.inf222.tp_inf222_hopital;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladiePatch;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientCreateUpdateDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientPatch;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.MaladieRepository;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.PatientRepository;
+import com.bassilekin.inf222.tp_inf222_hopital.services.PatientService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Data and measurements shared by the test classes. A bean of the test sources, found by the component
+ * scan of every test context, so it works on the database of the context that uses it.
+ */
+@Component
+public class TestFixtures {
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final TransactionTemplate transactionTemplate;
+    private final MaladieRepository maladieRepository;
+    private final PatientRepository patientRepository;
+    private final PatientService patientService;
+    private final ObjectMapper objectMapper;
+
+    public TestFixtures(EntityManagerFactory entityManagerFactory, PlatformTransactionManager transactionManager,
+            MaladieRepository maladieRepository, PatientRepository patientRepository, PatientService patientService,
+            ObjectMapper objectMapper) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maladieRepository = maladieRepository;
+        this.patientRepository = patientRepository;
+        this.patientService = patientService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Number of JDBC statements prepared while the action runs, from the Hibernate statistics (which count
+     * the statements of every thread).
+     */
+    public long countStatements(Runnable action) {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        action.run();
+        return statistics.getPrepareStatementCount();
+    }
+
+    /**
+     * Inserts patients in one transaction through the repository, so no event is published. Each one has
+     * the symptoms fièvre and toux, the treatment paracétamol and all the given maladies; its number, in the
+     * nom, e-mail and telephone, follows the patients already stored.
+     */
+    public void createPatients(int count, Collection<Long> maladieIds) {
+        transactionTemplate.executeWithoutResult(status -> {
+            Set<Maladies> maladies = Set.copyOf(maladieRepository.findAllById(maladieIds));
+            long offset = patientRepository.count();
+            for (int i = 0; i < count; i++) {
+                long n = offset + i;
+                Patients patient = new Patients();
+                patient.setNom("Nom" + n);
+                patient.setPrenom("Prenom" + n);
+                patient.setTelephone(600000000 + (int) n);
+                patient.setEmail("patient" + n + "@hopital.cm");
+                patient.setStade(stadePatient.STADE_I);
+                patient.setSymptomesManifester(Set.of("fièvre", "toux"));
+                patient.setTraitementSuivie(Set.of("paracétamol"));
+                patient.setSetMaladies(maladies);
+                patientRepository.save(patient);
+            }
+        });
+    }
+
+    /**
+     * Creates a patient at STADE_I through PatientService, so its events are published.
+     * @param n Number of the patient in its nom, e-mail and telephone, unique within a test.
+     */
+    public Long createPatient(int n) {
+        return patientService.createPatient(new PatientCreateUpdateDTO("Nom" + n, "Prenom" + n, 690000000, 650000000 + n,
+                "dossier" + n + "@hopital.cm", "O+", stadePatient.STADE_I, List.of(), List.of(), List.of())).id();
+    }
+
+    // Merge patches as the controllers read them from a JSON body
+    public PatientPatch patientPatch(Map<String, Object> fields) {
+        return objectMapper.convertValue(fields, PatientPatch.class);
+    }
+
+    public MaladiePatch maladiePatch(Map<String, Object> fields) {
+        return objectMapper.convertValue(fields, MaladiePatch.class);
+    }
+}
@@ -0,0 +1,48 @@
+package com.bassilekin.inf222.tp_inf222_hopital.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.jdbc.JdbcTestUtils;
+
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+
+@SpringBootTest
+class PatientIdSequenceAlignerTests {
+
+    private static final String NEXT_VALUE = "SELECT BASE_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE UPPER(SEQUENCE_NAME) = UPPER(?)";
+
+    @Autowired
+    private PatientIdSequenceAligner patientIdSequenceAligner;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void cleanUp() {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, "PATIENTS");
+    }
+
+    @Test
+    void sequenceBehindTheExistingIdsIsMovedPastThemAndOtherwiseLeftAlone() {
+        // A patient created while the ID came from an IDENTITY column
+        long maxId = nextValue() + 10_000;
+        jdbcTemplate.update("INSERT INTO PATIENTS (id, nom, prenom, num_urgence, telephone, email, version) VALUES (?, 'Nom', 'Prenom', 0, 0, 'identity@hopital.cm', 0)",
+                maxId);
+
+        patientIdSequenceAligner.afterSingletonsInstantiated();
+        assertThat(nextValue()).isEqualTo(maxId + Patients.ID_ALLOCATION_SIZE);
+
+        // Already past the IDs: no value is consumed
+        patientIdSequenceAligner.afterSingletonsInstantiated();
+        assertThat(nextValue()).isEqualTo(maxId + Patients.ID_ALLOCATION_SIZE);
+    }
+
+    private long nextValue() {
+        return jdbcTemplate.queryForObject(NEXT_VALUE, Long.class, Patients.ID_SEQUENCE);
+    }
+}
@@ -0,0 +1,304 @@
+package com.bassilekin.inf222.tp_inf222_hopital.controllers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.jdbc.JdbcTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Images;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.ImageRepository;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.MaladieRepository;
+import com.bassilekin.inf222.tp_inf222_hopital.services.BlobStore;
+import com.bassilekin.inf222.tp_inf222_hopital.services.ImageStorageService;
+import com.bassilekin.inf222.tp_inf222_hopital.services.LegacyImageContentMigration;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class ImageControllerTests {
+
+    private static final byte[] CONTENT = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MaladieRepository maladieRepository;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private LegacyImageContentMigration legacyImageContentMigration;
+
+    @Autowired
+    private ImageStorageService imageStorageService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Long maladieId;
+    private Long imageId;
+    private String contentHash;
+
+    @BeforeEach
+    void uploadImage() throws Exception {
+        Maladies maladie = new Maladies();
+        maladie.setNom("Pneumonie");
+        maladie.setType("Bactérienne");
+        maladie = maladieRepository.save(maladie);
+        maladieId = maladie.getId();
+
+        mockMvc.perform(post("/images/upload")
+                        .param("maladieId", maladie.getId().toString())
+                        .param("name", "radio.png")
+                        .contentType("image/png")
+                        .content(CONTENT))
+                .andExpect(status().isOk());
+
+        Images image = imageRepository.findAll().get(0);
+        imageId = image.getId();
+        contentHash = image.getContentHash();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, "IMAGES", "Maladies_symptomes", "Maladies_traitements", "MALADIES");
+    }
+
+    @Test
+    void downloadCarriesValidatorsAndCacheControl() throws Exception {
+        mockMvc.perform(get("/images/{id}", imageId))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + contentHash + "\""))
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=604800, private"))
+                .andExpect(content().bytes(CONTENT));
+    }
+
+    @Test
+    void matchingIfNoneMatchIsAnsweredWithNotModified() throws Exception {
+        mockMvc.perform(get("/images/{id}", imageId).header(HttpHeaders.IF_NONE_MATCH, "\"" + contentHash + "\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void sizeParameterServesAGeneratedThumbnail() throws Exception {
+        BufferedImage scan = new BufferedImage(1000, 600, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(scan, "png", png);
+        mockMvc.perform(post("/images/upload")
+                        .param("maladieId", maladieId.toString())
+                        .param("name", "scan.png")
+                        .contentType("image/png")
+                        .content(png.toByteArray()))
+                .andExpect(status().isOk());
+        Long scanId = imageRepository.findAll().stream()
+                .filter(image -> "scan.png".equals(image.getName()))
+                .findFirst().orElseThrow().getId();
+
+        byte[] thumbnail = mockMvc.perform(get("/images/{id}", scanId).param("size", "128"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(thumbnail));
+        assertThat(decoded.getWidth()).isEqualTo(128);
+        assertThat(decoded.getHeight()).isEqualTo(77);
+    }
+
+    @Test
+    void thumbnailOfAnUndecodableFormatRedirectsToTheOriginal() throws Exception {
+        // CONTENT is not a PNG: no ImageIO reader accepts it, on the first request or the next ones
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(get("/images/{id}", imageId).param("size", "128"))
+                    .andExpect(status().isSeeOther())
+                    .andExpect(header().string(HttpHeaders.LOCATION, "http://localhost/images/" + imageId))
+                    .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+        }
+    }
+
+    @Test
+    void thumbnailOfACorruptImageIsUnprocessable() throws Exception {
+        BufferedImage scan = new BufferedImage(1000, 600, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(scan, "png", png);
+        // The PNG signature and header are kept, the image data is cut off
+        byte[] truncated = Arrays.copyOf(png.toByteArray(), 40);
+        mockMvc.perform(post("/images/upload")
+                        .param("maladieId", maladieId.toString())
+                        .param("name", "tronquee.png")
+                        .contentType("image/png")
+                        .content(truncated))
+                .andExpect(status().isOk());
+        Long truncatedId = imageRepository.findAll().stream()
+                .filter(image -> "tronquee.png".equals(image.getName()))
+                .findFirst().orElseThrow().getId();
+
+        mockMvc.perform(get("/images/{id}", truncatedId).param("size", "128"))
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+        mockMvc.perform(get("/images/{id}", truncatedId))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(truncated));
+    }
+
+    @Test
+    void unsupportedThumbnailSizeIsRejected() throws Exception {
+        mockMvc.perform(get("/images/{id}", imageId).param("size", "300"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void rangeRequestReturnsPartialContent() throws Exception {
+        mockMvc.perform(get("/images/{id}", imageId).header(HttpHeaders.RANGE, "bytes=4-7"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 4-7/16"))
+                .andExpect(content().bytes("4567".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void imageBytesInAndOutAreCounted() throws Exception {
+        Counter in = meterRegistry.counter("app.images.bytes", "direction", "in");
+        Counter out = meterRegistry.counter("app.images.bytes", "direction", "out");
+        double received = in.count();
+        double served = out.count();
+
+        mockMvc.perform(post("/images/upload")
+                        .param("maladieId", maladieId.toString())
+                        .param("name", "echo.png")
+                        .contentType("image/png")
+                        .content(new byte[100]))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/images/{id}", imageId)).andExpect(status().isOk());
+        mockMvc.perform(get("/images/{id}", imageId).header(HttpHeaders.RANGE, "bytes=4-7")).andExpect(status().isPartialContent());
+        mockMvc.perform(get("/images/{id}", imageId).header(HttpHeaders.IF_NONE_MATCH, "\"" + contentHash + "\""))
+                .andExpect(status().isNotModified());
+
+        assertThat(in.count() - received).isEqualTo(100);
+        assertThat(out.count() - served).isEqualTo(CONTENT.length + 4);
+    }
+
+    @Test
+    void imagesStoredBeforeTheBlobStoreAreMovedToItOrAnsweredGone() throws Exception {
+        byte[] legacyContent = "ancienne radio".getBytes(StandardCharsets.US_ASCII);
+        // The column of the bytes before the blob store, left by ddl-auto on the databases of that time
+        jdbcTemplate.execute("ALTER TABLE IMAGES ADD COLUMN data BLOB");
+        try {
+            jdbcTemplate.update("INSERT INTO IMAGES (name, type, maladies_id, data) VALUES ('ancienne.png', 'image/png', ?, ?)",
+                    maladieId, legacyContent);
+            jdbcTemplate.update("INSERT INTO IMAGES (name, type, maladies_id) VALUES ('perdue.png', 'image/png', ?)", maladieId);
+            Long legacyId = jdbcTemplate.queryForObject("SELECT id FROM IMAGES WHERE name = 'ancienne.png'", Long.class);
+            Long lostId = jdbcTemplate.queryForObject("SELECT id FROM IMAGES WHERE name = 'perdue.png'", Long.class);
+            mockMvc.perform(get("/images/{id}", legacyId)).andExpect(status().isGone());
+
+            legacyImageContentMigration.afterSingletonsInstantiated();
+
+            mockMvc.perform(get("/images/{id}", legacyId))
+                    .andExpect(status().isOk())
+                    .andExpect(header().exists(HttpHeaders.ETAG))
+                    .andExpect(content().bytes(legacyContent));
+            assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM IMAGES WHERE data IS NOT NULL", Long.class)).isZero();
+            mockMvc.perform(get("/images/{id}", lostId)).andExpect(status().isGone());
+            mockMvc.perform(get("/images/{id}", lostId).param("size", "128")).andExpect(status().isGone());
+            mockMvc.perform(delete("/images/{id}", lostId)).andExpect(status().isOk());
+        } finally {
+            jdbcTemplate.execute("ALTER TABLE IMAGES DROP COLUMN data");
+        }
+    }
+
+    @Test
+    void deletingAnImageKeepsTheBlobOfAnIdenticalUpload() throws Exception {
+        mockMvc.perform(post("/images/upload")
+                        .param("maladieId", maladieId.toString())
+                        .param("name", "copie.png")
+                        .contentType("image/png")
+                        .content(CONTENT))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(delete("/images/{id}", imageId)).andExpect(status().isOk());
+        assertThat(blobStore.exists(contentHash)).isTrue();
+
+        Long copyId = imageRepository.findAll().get(0).getId();
+        mockMvc.perform(delete("/images/{id}", copyId)).andExpect(status().isOk());
+        assertThat(blobStore.exists(contentHash)).isFalse();
+    }
+
+    @Test
+    void deletingAnImageDuringAnIdenticalUploadKeepsItsBlob() throws Exception {
+        Images copy = transactionTemplate.execute(status -> {
+            try {
+                Images stored = imageStorageService.store(new ByteArrayInputStream(CONTENT), "copie.png", "image/png", maladieId);
+                // The copy is not committed yet when the original and its blob reference go away
+                CompletableFuture.runAsync(() -> {
+                    try {
+                        mockMvc.perform(delete("/images/{id}", imageId)).andExpect(status().isOk());
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }).join();
+                return stored;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertThat(blobStore.exists(contentHash)).isTrue();
+        mockMvc.perform(get("/images/{id}", copy.getId()))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(CONTENT));
+    }
+
+    @Test
+    void rolledBackUploadLeavesNoBlob() throws Exception {
+        byte[] unique = "radio annulee".getBytes(StandardCharsets.US_ASCII);
+        Images stored = transactionTemplate.execute(status -> {
+            status.setRollbackOnly();
+            try {
+                return imageStorageService.store(new ByteArrayInputStream(unique), "annulee.png", "image/png", maladieId);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertThat(blobStore.exists(stored.getContentHash())).isFalse();
+        assertThat(blobStore.exists(contentHash)).isTrue();
+    }
+}
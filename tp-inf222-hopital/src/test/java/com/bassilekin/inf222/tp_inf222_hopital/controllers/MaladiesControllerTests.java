@@ -0,0 +1,181 @@
+package com.bassilekin.inf222.tp_inf222_hopital.controllers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.jdbc.JdbcTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientCreateUpdateDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+import com.bassilekin.inf222.tp_inf222_hopital.services.MaladieService;
+import com.bassilekin.inf222.tp_inf222_hopital.services.PatientService;
+import com.bassilekin.inf222.tp_inf222_hopital.services.StatisticsEngine;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.persistence.EntityManagerFactory;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class MaladiesControllerTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private StatisticsEngine statisticsEngine;
+
+    @Autowired
+    private MaladieService maladieService;
+
+    @Autowired
+    private PatientService patientService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @AfterEach
+    void cleanUp() {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, "patient_maladie", "Patients_symptomesManifester",
+                "Patients_traitementSuivie", "PATIENTS", "Maladies_symptomes", "Maladies_traitements", "MALADIES");
+    }
+
+    @Test
+    void maladiesListIsServedFromItsSerializedBytesUntilAMaladieChanges() throws Exception {
+        Long firstId = null;
+        for (int i = 0; i < 20; i++) {
+            MaladieDTO maladie = maladieService.createMaladie(new MaladieDTO(null, "Maladie " + i, "Virale",
+                    List.of("fièvre", "toux", "céphalées"), List.of("repos", "hydratation"), null));
+            firstId = firstId == null ? maladie.id() : firstId;
+        }
+
+        MvcResult first = mockMvc.perform(get("/maladies").param("size", "50"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                .andReturn();
+        String etag = first.getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(etag).isNotBlank();
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        MvcResult second = mockMvc.perform(get("/maladies").param("size", "50"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andReturn();
+        mockMvc.perform(get("/maladies").param("size", "50").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        // Each representation has its own strong ETag
+        String gzipEtag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+        MvcResult gzipped = mockMvc.perform(get("/maladies").param("size", "50").header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.ETAG, gzipEtag))
+                .andReturn();
+        mockMvc.perform(get("/maladies").param("size", "50").header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                        .header(HttpHeaders.IF_NONE_MATCH, gzipEtag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/maladies").param("size", "50").header(HttpHeaders.IF_NONE_MATCH, gzipEtag))
+                .andExpect(status().isOk());
+        assertThat(statistics.getPrepareStatementCount()).isZero();
+        assertThat(second.getResponse().getContentAsByteArray()).isEqualTo(first.getResponse().getContentAsByteArray());
+        assertThat(gunzip(gzipped.getResponse().getContentAsByteArray())).isEqualTo(first.getResponse().getContentAsByteArray());
+
+        mockMvc.perform(patch("/maladies/{id}", firstId).contentType(MediaType.APPLICATION_JSON).content("{\"nom\":\"Grippe\"}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/maladies").param("size", "50"))
+                .andExpect(jsonPath("$[0].nom").value("Grippe"))
+                .andExpect(header().string(HttpHeaders.ETAG, not(etag)));
+    }
+
+    @Test
+    void statsAndPatientsOfAMaladieFollowThePatientWrites() throws Exception {
+        Long maladieId = maladieService.createMaladie(new MaladieDTO(null, "Paludisme", "Parasitaire", List.of(), List.of(), null)).id();
+        patientService.createPatient(patient(1, maladieId));
+        // The counters are shared with the other tests, which delete their rows without events
+        long total = totalPatients();
+        assertThat(totalPatients()).isEqualTo(total);
+        mockMvc.perform(get("/maladies/{id}/patients", maladieId)).andExpect(jsonPath("$.length()").value(1));
+
+        patientService.createPatient(patient(2, maladieId));
+
+        assertThat(totalPatients()).isEqualTo(total + 1);
+        mockMvc.perform(get("/maladies/{id}/patients", maladieId)).andExpect(jsonPath("$.length()").value(2));
+        // Errors are not cached
+        mockMvc.perform(get("/maladies/{id}/patients", maladieId + 1000)).andExpect(status().isNotFound());
+        mockMvc.perform(get("/maladies/{id}/patients", maladieId + 1000)).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void cachedStatsAreReplacedWhenAReconciliationCorrectsTheCounters() throws Exception {
+        statisticsEngine.reconcile();
+        long total = totalPatients();
+        // A row written without the services: no event moves the counters nor the cached response
+        jdbcTemplate.update("INSERT INTO PATIENTS (id, nom, prenom, num_urgence, telephone, email, version) VALUES (-1, 'Nom', 'Prenom', 0, 0, 'direct@hopital.cm', 0)");
+        assertThat(totalPatients()).isEqualTo(total);
+
+        statisticsEngine.reconcile();
+        assertThat(totalPatients()).isEqualTo(total + 1);
+    }
+
+    @Test
+    void writesWithAStaleIfMatchArePreconditionFailures() throws Exception {
+        Long id = maladieService.createMaladie(new MaladieDTO(null, "Paludisme", "Parasitaire", List.of(), List.of(), null)).id();
+        String etag = mockMvc.perform(get("/maladies/{id}", id)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        String newEtag = mockMvc.perform(patch("/maladies/{id}", id).header(HttpHeaders.IF_MATCH, etag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"type\":\"Virale\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(put("/maladies/{id}", id).header(HttpHeaders.IF_MATCH, etag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"nom\":\"Paludisme\",\"type\":\"Parasitaire\"}"))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(put("/maladies/{id}", id).header(HttpHeaders.IF_MATCH, newEtag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"nom\":\"Paludisme\",\"type\":\"Parasitaire\"}"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, not(newEtag)));
+    }
+
+    private long totalPatients() throws Exception {
+        String body = mockMvc.perform(get("/patients/stats")).andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(body).get("totalPatients").asLong();
+    }
+
+    private static PatientCreateUpdateDTO patient(int n, Long maladieId) {
+        return new PatientCreateUpdateDTO("Nom" + n, "Prenom" + n, 690000000, 600000000 + n, "stats" + n + "@hopital.cm",
+                "O+", stadePatient.STADE_I, List.of(), List.of(), List.of(maladieId));
+    }
+
+    private static byte[] gunzip(byte[] body) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return gzip.readAllBytes();
+        }
+    }
+}
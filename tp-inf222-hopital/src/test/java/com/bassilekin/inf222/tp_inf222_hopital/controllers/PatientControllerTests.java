@@ -0,0 +1,340 @@
+package com.bassilekin.inf222.tp_inf222_hopital.controllers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.jdbc.JdbcTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.bassilekin.inf222.tp_inf222_hopital.TestFixtures;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.CursorPage;
+import com.bassilekin.inf222.tp_inf222_hopital.config.PaginationProperties;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.MaladieRepository;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.PatientRepository;
+import com.jayway.jsonpath.JsonPath;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class PatientControllerTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MaladieRepository maladieRepository;
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PaginationProperties paginationProperties;
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    private Long maladieId;
+
+    @BeforeEach
+    void createMaladie() {
+        Maladies maladie = new Maladies();
+        maladie.setNom("Paludisme");
+        maladie.setType("Parasitaire");
+        maladieId = maladieRepository.save(maladie).getId();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, "patient_maladie", "Patients_symptomesManifester",
+                "Patients_traitementSuivie", "PATIENTS", "Maladies_symptomes", "Maladies_traitements", "MALADIES");
+    }
+
+    @Test
+    void bulkNdjsonImportReportsInvalidRowsAndKeepsTheOthers() throws Exception {
+        String body = String.join("\n",
+                patient(1, List.of(maladieId)),
+                patient(2, List.of(maladieId, 9999L)),
+                patient(3, List.of()).replace("STADE_I", "STADE_X"),
+                patient(4, List.of()));
+
+        mockMvc.perform(post("/patients/bulk").contentType("application/x-ndjson").content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.received").value(4))
+                .andExpect(jsonPath("$.imported").value(2))
+                .andExpect(jsonPath("$.errors[0].row").value(2))
+                .andExpect(jsonPath("$.errors[1].row").value(3));
+
+        assertThat(patientRepository.count()).isEqualTo(2);
+    }
+
+    @Test
+    void bulkJsonArrayImportRejectsOnlyTheRowsViolatingAConstraint() throws Exception {
+        mockMvc.perform(post("/patients/bulk").contentType(MediaType.APPLICATION_JSON)
+                        .content("[" + patient(1, List.of()) + "]"))
+                .andExpect(jsonPath("$.imported").value(1));
+
+        // Row 2 reuses the email and telephone of the patient already imported
+        String body = "[" + patient(2, List.of(maladieId)) + "," + patient(1, List.of()) + "," + patient(3, List.of()) + "]";
+        mockMvc.perform(post("/patients/bulk").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.received").value(3))
+                .andExpect(jsonPath("$.imported").value(2))
+                .andExpect(jsonPath("$.errors.length()").value(1))
+                .andExpect(jsonPath("$.errors[0].row").value(2));
+
+        assertThat(patientRepository.count()).isEqualTo(3);
+    }
+
+    @Test
+    void bulkImportSendsTheInsertsInJdbcBatches() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            body.append(patient(i, List.of(maladieId))).append('\n');
+        }
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        mockMvc.perform(post("/patients/bulk").contentType("application/x-ndjson").content(body.toString()))
+                .andExpect(jsonPath("$.imported").value(200));
+
+        // 800 rows (patients, symptoms, treatments, links) without one statement per row
+        assertThat(patientRepository.count()).isEqualTo(200);
+        assertThat(statistics.getPrepareStatementCount()).isLessThan(50);
+    }
+
+    @Test
+    void requestsRecordTheirSqlStatementsAndServiceTimings() throws Exception {
+        mockMvc.perform(post("/patients/bulk").contentType("application/x-ndjson").content(patient(1, List.of(maladieId))))
+                .andExpect(jsonPath("$.imported").value(1));
+        Long patientId = patientRepository.findAll().get(0).getId();
+        DistributionSummary statements = meterRegistry.summary("app.requests.sql.statements", "method", "GET", "uri", "/patients/{id}");
+        long requests = statements.count();
+        double total = statements.totalAmount();
+        long serviceCalls = meterRegistry.timer("app.service", "class", "com.bassilekin.inf222.tp_inf222_hopital.services.PatientService",
+                "method", "getPatientById", "exception", "none").count();
+
+        mockMvc.perform(get("/patients/{id}", patientId)).andExpect(status().isOk());
+
+        // The patient, its symptoms, treatments and maladies
+        assertThat(statements.count()).isEqualTo(requests + 1);
+        assertThat(statements.totalAmount() - total).isBetween(1.0, 5.0);
+        assertThat(meterRegistry.get("app.requests.sql.time").tag("uri", "/patients/{id}").timer().count()).isEqualTo(requests + 1);
+        assertThat(meterRegistry.get("app.service").tag("method", "getPatientById").timer().count()).isEqualTo(serviceCalls + 1);
+    }
+
+    @Test
+    void summaryViewReturnsPatientSummaries() throws Exception {
+        mockMvc.perform(post("/patients/bulk").contentType("application/x-ndjson").content(patient(1, List.of(maladieId))))
+                .andExpect(jsonPath("$.imported").value(1));
+
+        mockMvc.perform(get("/patients").param("view", "summary"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].nom").value("Nom1"))
+                .andExpect(jsonPath("$[0].traitementSuivie[0]").value("repos"))
+                .andExpect(jsonPath("$[0].maladiesAffectees").doesNotExist());
+        mockMvc.perform(get("/patients/by-stade").param("stade", "STADE_I").param("view", "summary"))
+                .andExpect(jsonPath("$[0].stade").value("STADE_I"))
+                .andExpect(jsonPath("$[0].symptomesManifester").doesNotExist());
+        mockMvc.perform(get("/patients/filter").param("nom", "Nom").param("view", "summary"))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].telephone").value(600000001));
+        mockMvc.perform(get("/patients").param("view", "summary").param("cursor", "not-a-cursor"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void pagesAreClampedToTheMaxSizeAndLinkedByScopedCursors() throws Exception {
+        int maxSize = paginationProperties.maxSize();
+        fixtures.createPatients(maxSize + 1, List.of(maladieId));
+
+        // A larger size is clamped: the extra patient is left for the next page
+        MvcResult first = mockMvc.perform(get("/patients").param("size", String.valueOf(maxSize * 10)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(maxSize))
+                .andExpect(header().exists(CursorPage.NEXT_CURSOR_HEADER))
+                .andReturn();
+        String cursor = first.getResponse().getHeader(CursorPage.NEXT_CURSOR_HEADER);
+        mockMvc.perform(get("/patients").param("cursor", cursor).param("size", String.valueOf(maxSize)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(header().doesNotExist(CursorPage.NEXT_CURSOR_HEADER));
+
+        mockMvc.perform(get("/patients").param("cursor", "not-a-cursor"))
+                .andExpect(status().isBadRequest());
+        // A cursor is only valid on the list that returned it
+        Maladies other = new Maladies();
+        other.setNom("Typhoïde");
+        other.setType("Bactérienne");
+        maladieRepository.save(other);
+        // In the URI: the response cache keys /maladies by its query string, which param() leaves empty
+        String maladiesCursor = mockMvc.perform(get("/maladies?size=1"))
+                .andExpect(header().exists(CursorPage.NEXT_CURSOR_HEADER))
+                .andReturn().getResponse().getHeader(CursorPage.NEXT_CURSOR_HEADER);
+        mockMvc.perform(get("/patients").param("cursor", maladiesCursor))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/maladies?cursor={cursor}", cursor))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void patchBodiesAreMergePatchesTypeCheckedBeforeThePatientIsRead() throws Exception {
+        String created = mockMvc.perform(post("/patients").contentType(MediaType.APPLICATION_JSON).content(patient(1, List.of(maladieId))))
+                .andReturn().getResponse().getContentAsString();
+        long id = JsonPath.<Number>read(created, "$.id").longValue();
+
+        mockMvc.perform(patch("/patients/{id}", id).contentType("application/merge-patch+json")
+                        .content("{\"stade\":\"STADE_III\",\"symptomesManifester\":null,\"inconnu\":{\"a\":[1]}}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.stade").value("STADE_III"))
+                .andExpect(jsonPath("$.symptomesManifester").isEmpty())
+                .andExpect(jsonPath("$.traitementSuivie[0]").value("repos"));
+        mockMvc.perform(patch("/patients/{id}", id).contentType(MediaType.APPLICATION_JSON).content("{\"telephone\":\"600000002\"}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(patch("/patients/{id}", id).contentType(MediaType.APPLICATION_JSON).content("[]"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(patch("/patients/{id}", id + 1000).contentType(MediaType.APPLICATION_JSON).content("{\"stade\":\"STADE_X\"}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(patch("/patients/{id}", id + 1000).contentType(MediaType.APPLICATION_JSON).content("{\"stade\":\"STADE_II\"}"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void conditionalWritesRejectStaleVersionsAndConcurrentPatchesAreAllKept() throws Exception {
+        String created = mockMvc.perform(post("/patients").contentType(MediaType.APPLICATION_JSON).content(patient(1, List.of(maladieId))))
+                .andReturn().getResponse().getContentAsString();
+        long id = JsonPath.<Number>read(created, "$.id").longValue();
+        String etag = mockMvc.perform(get("/patients/{id}", id))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/patients/{id}", id).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        String newEtag = mockMvc.perform(patch("/patients/{id}", id).header(HttpHeaders.IF_MATCH, etag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"stade\":\"STADE_II\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(newEtag).isNotEqualTo(etag);
+        mockMvc.perform(patch("/patients/{id}", id).header(HttpHeaders.IF_MATCH, etag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"stade\":\"STADE_III\"}"))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(put("/patients/{id}", id).header(HttpHeaders.IF_MATCH, etag)
+                        .contentType(MediaType.APPLICATION_JSON).content(patient(2, List.of())))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(patch("/patients/{id}", id).header(HttpHeaders.IF_MATCH, "W/" + newEtag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"stade\":\"STADE_III\"}"))
+                .andExpect(status().isPreconditionFailed());
+        // Changing only the maladies of the patient is a new version too
+        String linkEtag = mockMvc.perform(patch("/patients/{id}", id).header(HttpHeaders.IF_MATCH, newEtag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"maladieIds\":[]}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(linkEtag).isNotEqualTo(newEtag);
+
+        // Read-modify-write of the symptom list: each writer retries on 412 until its symptom is in
+        int writers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<Integer>> attempts = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                String symptome = "symptome" + w;
+                attempts.add(executor.submit((Callable<Integer>) () -> addSymptome(id, symptome)));
+            }
+            for (Future<Integer> attempt : attempts) {
+                assertThat(attempt.get()).isPositive();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        mockMvc.perform(get("/patients/{id}", id))
+                .andExpect(jsonPath("$.symptomesManifester.length()").value(writers + 1))
+                .andExpect(header().string(HttpHeaders.ETAG,
+                        VersionTags.etag(Long.parseLong(linkEtag.replace("\"", "")) + writers)));
+    }
+
+    @Test
+    void renamingOrDeletingAMaladieIsANewVersionOfItsPatients() throws Exception {
+        String created = mockMvc.perform(post("/patients").contentType(MediaType.APPLICATION_JSON).content(patient(1, List.of(maladieId))))
+                .andReturn().getResponse().getContentAsString();
+        long id = JsonPath.<Number>read(created, "$.id").longValue();
+        String etag = mockMvc.perform(get("/patients/{id}", id))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(patch("/maladies/{id}", maladieId).contentType(MediaType.APPLICATION_JSON).content("{\"nom\":\"Malaria\"}"))
+                .andExpect(status().isOk());
+        String renamedEtag = mockMvc.perform(get("/patients/{id}", id).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.maladiesAffectees[0].nom").value("Malaria"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(delete("/maladies/{id}", maladieId)).andExpect(status().is2xxSuccessful());
+        mockMvc.perform(get("/patients/{id}", id).header(HttpHeaders.IF_NONE_MATCH, renamedEtag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.maladiesAffectees.length()").value(0));
+    }
+
+    // Adds a symptom with If-Match, rereading the patient after each 412; returns the number of attempts
+    private int addSymptome(long id, String symptome) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            MvcResult read = mockMvc.perform(get("/patients/{id}", id)).andReturn();
+            List<String> symptomes = new ArrayList<>(JsonPath.<List<String>>read(read.getResponse().getContentAsString(), "$.symptomesManifester"));
+            symptomes.add(symptome);
+            int status = mockMvc.perform(patch("/patients/{id}", id)
+                            .header(HttpHeaders.IF_MATCH, read.getResponse().getHeader(HttpHeaders.ETAG))
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"symptomesManifester\":" + JsonPath.parse(symptomes).jsonString() + "}"))
+                    .andReturn().getResponse().getStatus();
+            if (status == 200) {
+                return attempt;
+            }
+            assertThat(status).isEqualTo(412);
+        }
+    }
+
+    private static String patient(int n, List<Long> maladieIds) {
+        return """
+                {"nom":"Nom%1$d","prenom":"Prenom%1$d","numUrgence":690000000,"telephone":%2$d,"email":"patient%1$d@hopital.cm",\
+                "groupeSanguin":"O+","stade":"STADE_I","symptomesManifester":["fièvre"],"traitementSuivie":["repos"],"maladieIds":%3$s}"""
+                .formatted(n, 600000000 + n, maladieIds.toString());
+    }
+}
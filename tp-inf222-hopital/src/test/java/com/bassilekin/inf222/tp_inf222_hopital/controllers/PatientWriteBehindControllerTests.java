@@ -0,0 +1,79 @@
+package com.bassilekin.inf222.tp_inf222_hopital.controllers;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.jdbc.JdbcTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.bassilekin.inf222.tp_inf222_hopital.TestFixtures;
+
+/**
+ * PATCH /patients/{id} with the write-behind queue enabled. The queue holds one patient and its worker
+ * lingers long enough for the queued patches to stay pending during each test.
+ */
+@SpringBootTest(properties = {
+    // Own database: this context runs next to the one shared by the other tests
+    "spring.datasource.url=jdbc:h2:mem:write_behind;DB_CLOSE_DELAY=-1",
+    "app.patients.write-behind.enabled=true",
+    "app.patients.write-behind.capacity=1",
+    "app.patients.write-behind.workers=1",
+    "app.patients.write-behind.linger=1m"
+})
+@AutoConfigureMockMvc
+class PatientWriteBehindControllerTests {
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void cleanUp() {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, "patient_maladie", "Patients_symptomesManifester",
+                "Patients_traitementSuivie", "PATIENTS");
+    }
+
+    @Test
+    void asyncPatchesAreAcceptedUntilTheQueueIsFullAndPrecedeLaterSynchronousOnes() throws Exception {
+        Long first = fixtures.createPatient(1);
+        Long second = fixtures.createPatient(2);
+
+        mockMvc.perform(patch("/patients/{id}", first).contentType(MediaType.APPLICATION_JSON)
+                        .header("Prefer", "respond-async")
+                        .content("{\"stade\":\"STADE_II\",\"symptomesManifester\":[\"toux\"]}"))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Preference-Applied", "respond-async"));
+        mockMvc.perform(patch("/patients/{id}", second).contentType(MediaType.APPLICATION_JSON)
+                        .header("Prefer", "respond-async")
+                        .content("{\"stade\":\"STADE_II\"}"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+
+        // The queued patch is applied first, so it cannot overwrite the stade set here once flushed
+        mockMvc.perform(patch("/patients/{id}", first).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"stade\":\"STADE_III\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.stade").value("STADE_III"))
+                .andExpect(jsonPath("$.symptomesManifester[0]").value("toux"));
+        // The queue has room again
+        mockMvc.perform(patch("/patients/{id}", second).contentType(MediaType.APPLICATION_JSON)
+                        .header("Prefer", "respond-async")
+                        .content("{\"stade\":\"STADE_II\"}"))
+                .andExpect(status().isAccepted());
+    }
+}
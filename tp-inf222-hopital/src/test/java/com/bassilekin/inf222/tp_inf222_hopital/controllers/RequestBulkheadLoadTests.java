@@ -0,0 +1,204 @@
+package com.bassilekin.inf222.tp_inf222_hopital.controllers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.jdbc.JdbcTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.MaladieRepository;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.PatientRepository;
+import com.bassilekin.inf222.tp_inf222_hopital.services.ImageStorageService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Load test of the request bulkhead on virtual threads: many clients download a large image while
+ * one client reads a patient. The image downloads only get their own permits, so the patient lookups
+ * are never rejected, every 503 is counted against the images, and all the permits are free again once
+ * the load stops. The latency percentiles of both are logged; they depend on the machine and are not asserted.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    // Own database: this context runs next to the one shared by the other tests
+    "spring.datasource.url=jdbc:h2:mem:bulkhead_load;DB_CLOSE_DELAY=-1",
+    "spring.threads.virtual.enabled=true",
+    "app.bulkhead.enabled=true",
+    "app.bulkhead.images=2",
+    "app.bulkhead.max-wait=200ms"
+})
+class RequestBulkheadLoadTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestBulkheadLoadTests.class);
+
+    private static final int IMAGE_CLIENTS = 16;
+    private static final int IMAGE_SIZE = 4 * 1024 * 1024;
+    private static final Duration LOAD_DURATION = Duration.ofSeconds(3);
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private MaladieRepository maladieRepository;
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private ImageStorageService imageStorageService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+
+    @AfterEach
+    void cleanUp() {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, "IMAGES", "patient_maladie", "Patients_symptomesManifester",
+                "Patients_traitementSuivie", "PATIENTS", "Maladies_symptomes", "Maladies_traitements", "MALADIES");
+    }
+
+    @Test
+    void imageLoadIsRejectedWithinItsOwnPermits() throws Exception {
+        Maladies maladie = new Maladies();
+        maladie.setNom("Tuberculose");
+        maladie.setType("Bactérienne");
+        Long maladieId = maladieRepository.save(maladie).getId();
+        Long imageId = imageStorageService.store(new PatternInputStream(IMAGE_SIZE), "radio-thorax.png", "image/png", maladieId).getId();
+        Long patientId = transactionTemplate.execute(status -> {
+            Patients patient = new Patients();
+            patient.setNom("Nom");
+            patient.setPrenom("Prenom");
+            patient.setTelephone(690000000);
+            patient.setEmail("charge@hopital.cm");
+            patient.setStade(stadePatient.STADE_I);
+            return patientRepository.save(patient).getId();
+        });
+
+        double crudPermits = permits("crud");
+        double imagesRejected = rejected("images");
+        ConcurrentLinkedQueue<Long> imageLatencies = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Integer> imageStatuses = new ConcurrentLinkedQueue<>();
+        List<Long> patientLatencies = new ArrayList<>();
+        List<Integer> patientStatuses = new ArrayList<>();
+        long deadline = System.nanoTime() + LOAD_DURATION.toNanos();
+
+        try (ExecutorService load = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < IMAGE_CLIENTS; i++) {
+                load.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        HttpResponse<Void> response = client.send(request("/images/" + imageId), HttpResponse.BodyHandlers.discarding());
+                        imageLatencies.add(System.nanoTime() - start);
+                        imageStatuses.add(response.statusCode());
+                    }
+                    return null;
+                });
+            }
+            while (System.nanoTime() < deadline) {
+                long start = System.nanoTime();
+                HttpResponse<Void> response = client.send(request("/patients/" + patientId), HttpResponse.BodyHandlers.discarding());
+                patientLatencies.add(System.nanoTime() - start);
+                patientStatuses.add(response.statusCode());
+            }
+            load.shutdown();
+            assertThat(load.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+        }
+
+        List<Long> images = new ArrayList<>(imageLatencies);
+        logger.info("Patient lookups: {} requests, p50 {} ms, p99 {} ms", patientLatencies.size(),
+                percentileMillis(patientLatencies, 50), percentileMillis(patientLatencies, 99));
+        logger.info("Image downloads: {} requests ({} rejected with 503), p50 {} ms, p99 {} ms", images.size(),
+                Collections.frequency(imageStatuses, 503), percentileMillis(images, 50), percentileMillis(images, 99));
+
+        assertThat(patientStatuses).containsOnly(200);
+        assertThat(rejected("crud")).isZero();
+        assertThat(Set.copyOf(imageStatuses)).isSubsetOf(200, 503);
+        assertThat(rejected("images") - imagesRejected).isEqualTo(Collections.frequency(imageStatuses, 503));
+        // No permit is leaked, whether the request was served or rejected
+        assertThat(permits("images")).isEqualTo(2);
+        assertThat(permits("crud")).isEqualTo(crudPermits);
+    }
+
+    private double permits(String endpointClass) {
+        return meterRegistry.get("app.bulkhead.permits").tag("class", endpointClass).gauge().value();
+    }
+
+    private double rejected(String endpointClass) {
+        return meterRegistry.get("app.bulkhead.rejected").tag("class", endpointClass).counter().count();
+    }
+
+    private HttpRequest request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api" + path)).build();
+    }
+
+    private static long percentileMillis(List<Long> latencies, int percentile) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sorted.get(Math.max(0, index)));
+    }
+
+    /**
+     * Produces the content of the test image without holding it in memory.
+     */
+    private static final class PatternInputStream extends InputStream {
+
+        private final long length;
+        private long position;
+
+        PatternInputStream(long length) {
+            this.length = length;
+        }
+
+        @Override
+        public int read() {
+            return position < length ? (int) (position++ % 251) : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int len) throws IOException {
+            if (position >= length) {
+                return -1;
+            }
+            int count = (int) Math.min(len, length - position);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) (position++ % 251);
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.bassilekin.inf222.tp_inf222_hopital.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Runs every repository query against PostgreSQL with the Flyway schema of the prod profile, then
+ * EXPLAINs each statement Hibernate sent, with its parameters, and fails on the sequential scans that
+ * read a large table to keep a small part of it: those queries are missing an index.
+ * Full reads (lists, exports, statistics) scan by design and are not reported.
+ * Skipped when Docker is not available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@SpringBootTest(properties = {
+    "spring.datasource.driver-class-name=org.postgresql.Driver",
+    "spring.flyway.enabled=true",
+    "spring.flyway.locations=classpath:db/migration,classpath:db/vendor/{vendor}",
+    "spring.jpa.hibernate.ddl-auto=validate"
+})
+class RepositoryQueryPlanTests {
+
+    // Tables smaller than this are read whole whatever their indexes
+    private static final long ROW_THRESHOLD = 1000;
+    // A scan keeping less than this share of the table should have used an index
+    private static final double MAX_SELECTIVITY = 0.1;
+
+    @Container
+    @ServiceConnection
+    static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16.9");
+
+    // Statements prepared through the data source, with their parameters
+    private static final List<Statement> executed = new CopyOnWriteArrayList<>();
+
+    private record Statement(String sql, List<Object> parameters) {
+    }
+
+    @TestConfiguration
+    static class StatementCapture {
+
+        @Bean
+        static BeanPostProcessor capturingDataSource() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof DataSource dataSource ? capturing(dataSource) : bean;
+                }
+            };
+        }
+    }
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private MaladieRepository maladieRepository;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void repositoryQueriesDoNotScanLargeTablesToFilterThem() throws Exception {
+        seed();
+        executed.clear();
+        transactionTemplate.executeWithoutResult(status -> {
+            runPatientQueries();
+            runMaladieAndImageQueries();
+            status.setRollbackOnly();
+        });
+
+        Map<String, Statement> statements = new LinkedHashMap<>();
+        for (Statement statement : List.copyOf(executed)) {
+            statements.putIfAbsent(statement.sql(), statement);
+        }
+        Map<String, Long> tableRows = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        jdbcTemplate.query("SELECT relname, reltuples::bigint FROM pg_class WHERE relkind = 'r'",
+                row -> { tableRows.put(row.getString(1), row.getLong(2)); });
+
+        List<String> violations = new ArrayList<>();
+        for (Statement statement : statements.values()) {
+            String plan = jdbcTemplate.queryForObject("EXPLAIN (FORMAT JSON) " + statement.sql(), String.class,
+                    statement.parameters().toArray());
+            collectFilteringSeqScans(objectMapper.readTree(plan).get(0).get("Plan"), tableRows, statement.sql(), violations);
+        }
+
+        assertThat(statements).hasSizeGreaterThan(30);
+        assertThat(violations).isEmpty();
+    }
+
+    private void runPatientQueries() {
+        patientRepository.findByNom("Nom123");
+        patientRepository.findByIdGreaterThanOrderByIdAsc(10000L, Limit.of(50));
+        patientRepository.fetchMaladiesOf(List.of(10001L, 10002L, 10003L));
+        patientRepository.fetchSymptomesManifesterOf(List.of(10001L, 10002L, 10003L));
+        patientRepository.fetchTraitementSuivieOf(List.of(10001L, 10002L, 10003L));
+        try (Stream<?> patients = patientRepository.streamAll()) {
+            patients.limit(10).count();
+        }
+        patientRepository.findMaladieIdsByPatientId(1L);
+        patientRepository.unlinkMaladies(1L, List.of(1L, 2L));
+        patientRepository.linkMaladies(1L, List.of(3L));
+        patientRepository.findByEmail("patient77@hopital.cm");
+        patientRepository.findByTelephone(600000077);
+        patientRepository.findAllByStade(stadePatient.STADE_II);
+        patientRepository.findByTraitementSuivieContaining("ment 1234");
+        patientRepository.findByNomAndStadeAndTraitementSuivieContaining("Nom123", stadePatient.STADE_II, "ment 1234");
+        patientRepository.findSummariesByIdGreaterThan(10000L, Limit.of(50));
+        patientRepository.findSummariesByStade(stadePatient.STADE_II);
+        patientRepository.findSummariesByNomAndStadeAndTraitementSuivieContaining("Nom123", stadePatient.STADE_II, "ment 1234");
+        patientRepository.findTraitementRowsByPatientIds(List.of(1L, 2L, 3L));
+        patientRepository.countPatientsByStade();
+        patientRepository.countDistinctStades();
+        patientRepository.countBySymptomesManifesterIsNotEmpty();
+        patientRepository.countByTraitementSuivieIsNotEmpty();
+        patientRepository.countByStade(stadePatient.STADE_IV);
+    }
+
+    private void runMaladieAndImageQueries() {
+        maladieRepository.findByNom("Maladie 42");
+        maladieRepository.findAllIds();
+        maladieRepository.findExistingIds(List.of(1L, 2L, 99999L));
+        maladieRepository.findByIdGreaterThanOrderByIdAsc(1000L, Limit.of(50));
+        maladieRepository.findSummariesByIdGreaterThan(1000L, Limit.of(50));
+        maladieRepository.findByType("Type 3");
+        maladieRepository.findByTypeAndNom("Type 3", "Maladie 43");
+        maladieRepository.countMaladiesByType();
+        maladieRepository.countBySymptomesIsNotEmpty();
+        maladieRepository.countByTraitementsIsNotEmpty();
+        maladieRepository.countTotalUniqueSymptoms();
+        maladieRepository.countTotalUniqueTreatments();
+        maladieRepository.countPatientsPerDisease();
+        maladieRepository.findAllIdNomType();
+        maladieRepository.findAllSymptomeRows();
+        maladieRepository.findAllTraitementRows();
+        maladieRepository.countByImagesIsNotEmpty();
+
+        String hash = jdbcTemplate.queryForObject("SELECT contentHash FROM IMAGES WHERE id = 1", String.class);
+        imageRepository.findContentHashesByMaladieId(9L);
+        imageRepository.findContentHashesIn(Set.of(hash));
+
+        // Deletion of a maladie, in the order of MaladieService.deleteMaladieID
+        patientRepository.incrementVersionOfPatientsOf(7L);
+        patientRepository.unlinkAllFromMaladie(7L);
+        imageRepository.deleteAllByMaladieId(7L);
+        maladieRepository.deleteSymptomesByMaladieId(7L);
+        maladieRepository.deleteTraitementsByMaladieId(7L);
+        maladieRepository.deleteRowById(7L);
+    }
+
+    // 2 000 maladies and 20 000 patients, with selective values for the searched columns
+    private void seed() {
+        jdbcTemplate.execute("""
+                INSERT INTO MALADIES (id, nom, type) SELECT i, 'Maladie ' || i, 'Type ' || (i % 20) FROM generate_series(1, 2000) i;
+                INSERT INTO Maladies_symptomes SELECT i, 'symptome ' || ((i * 7 + k) % 3000) FROM generate_series(1, 2000) i, generate_series(1, 3) k;
+                INSERT INTO Maladies_traitements SELECT i, 'traitement ' || ((i * 11 + k) % 3000) FROM generate_series(1, 2000) i, generate_series(1, 2) k;
+                INSERT INTO PATIENTS (id, nom, prenom, num_urgence, telephone, email, groupeSanguin, stade)
+                    SELECT i, 'Nom' || i, 'Prenom' || i, 0, 600000000 + i, 'patient' || i || '@hopital.cm', 'O+', i % 5 FROM generate_series(1, 20000) i;
+                INSERT INTO Patients_symptomesManifester SELECT i, 'symptome ' || ((i + k) % 3000) FROM generate_series(1, 20000) i, generate_series(1, 2) k;
+                INSERT INTO Patients_traitementSuivie SELECT i, 'traitement ' || (i % 5000) FROM generate_series(1, 20000) i;
+                INSERT INTO patient_maladie (patient_id, maladie_id)
+                    SELECT i, 1 + (i % 2000) FROM generate_series(1, 20000) i
+                    UNION SELECT i, 1 + ((i * 13) % 2000) FROM generate_series(1, 20000) i;
+                INSERT INTO IMAGES (id, name, type, contentHash, contentLength, maladies_id, uploadedAt)
+                    SELECT i, 'image' || i || '.png', 'image/png', md5(i::text) || md5((-i)::text), 1000, 1 + (i % 2000), now()
+                    FROM generate_series(1, 10000) i;
+                ANALYZE;
+                """);
+    }
+
+    private static void collectFilteringSeqScans(JsonNode plan, Map<String, Long> tableRows, String sql, List<String> violations) {
+        if ("Seq Scan".equals(plan.path("Node Type").asText()) && plan.has("Filter")) {
+            String table = plan.path("Relation Name").asText();
+            long rows = tableRows.getOrDefault(table, 0L);
+            long kept = plan.path("Plan Rows").asLong();
+            if (rows > ROW_THRESHOLD && kept < rows * MAX_SELECTIVITY) {
+                violations.add("Seq Scan on " + table + " (" + rows + " rows, ~" + kept + " kept, filter "
+                        + plan.path("Filter").asText() + ") in: " + sql);
+            }
+        }
+        for (JsonNode child : plan.path("Plans")) {
+            collectFilteringSeqScans(child, tableRows, sql, violations);
+        }
+    }
+
+    // --- Capture of the statements and of their parameters, through JDK proxies ---
+
+    private interface Interceptor {
+        Object afterCall(Method method, Object[] args, Object result);
+    }
+
+    private static DataSource capturing(DataSource dataSource) {
+        return proxy(DataSource.class, dataSource,
+                (method, args, result) -> result instanceof Connection connection ? capturing(connection) : result);
+    }
+
+    private static Connection capturing(Connection connection) {
+        return proxy(Connection.class, connection, (method, args, result) ->
+                result instanceof PreparedStatement statement && method.getName().equals("prepareStatement")
+                        ? capturing(statement, (String) args[0])
+                        : result);
+    }
+
+    private static PreparedStatement capturing(PreparedStatement statement, String sql) {
+        Map<Integer, Object> parameters = new TreeMap<>();
+        return proxy(PreparedStatement.class, statement, (method, args, result) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                parameters.put(index, name.equals("setNull") ? null : args[1]);
+            } else if (name.startsWith("execute") || name.equals("addBatch")) {
+                executed.add(new Statement(sql, new ArrayList<>(parameters.values())));
+            }
+            return result;
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, T target, Interceptor interceptor) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            try {
+                return interceptor.afterCall(method, args, method.invoke(target, args));
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+}
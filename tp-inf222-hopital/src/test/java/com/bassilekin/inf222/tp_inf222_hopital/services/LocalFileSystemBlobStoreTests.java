@@ -0,0 +1,113 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import com.bassilekin.inf222.tp_inf222_hopital.config.StorageProperties;
+
+class LocalFileSystemBlobStoreTests {
+
+    @TempDir
+    Path root;
+
+    private LocalFileSystemBlobStore blobStore;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        blobStore = new LocalFileSystemBlobStore(new StorageProperties(root, DataSize.ofMegabytes(128)));
+    }
+
+    @Test
+    void identicalContentIsStoredOnce() throws IOException {
+        byte[] content = "radiographie".getBytes(StandardCharsets.UTF_8);
+
+        StoredBlob first = blobStore.put(new ByteArrayInputStream(content));
+        StoredBlob second = blobStore.put(new ByteArrayInputStream(content));
+
+        assertThat(second).isEqualTo(first);
+        assertThat(first.size()).isEqualTo(content.length);
+        assertThat(blobStore.get(first.hash()).getContentAsByteArray()).isEqualTo(content);
+        try (var files = Files.walk(root)) {
+            assertThat(files.filter(Files::isRegularFile).count()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void contentAboveTheMaximumSizeIsRejectedWithoutLeavingFiles() throws IOException {
+        LocalFileSystemBlobStore smallStore = new LocalFileSystemBlobStore(new StorageProperties(root, DataSize.ofKilobytes(1)));
+
+        assertThatThrownBy(() -> smallStore.put(new GeneratedInputStream(DataSize.ofKilobytes(2).toBytes())))
+                .isInstanceOf(BlobTooLargeException.class);
+        try (var files = Files.walk(root)) {
+            assertThat(files.filter(Files::isRegularFile).count()).isZero();
+        }
+    }
+
+    /**
+     * Load test of the upload path: storing 64MB must not allocate more than storing 1MB,
+     * i.e. the content is never buffered on the heap.
+     */
+    @Test
+    void allocationPerUploadDoesNotGrowWithTheFileSize() throws IOException {
+        // Warm up so that class loading and JIT allocations are not measured
+        for (int i = 0; i < 3; i++) {
+            blobStore.put(new GeneratedInputStream(DataSize.ofMegabytes(1).toBytes()));
+        }
+
+        long smallUpload = allocatedBytesDuring(DataSize.ofMegabytes(1).toBytes());
+        long largeUpload = allocatedBytesDuring(DataSize.ofMegabytes(64).toBytes());
+
+        assertThat(largeUpload - smallUpload).isLessThan(DataSize.ofMegabytes(1).toBytes());
+    }
+
+    private long allocatedBytesDuring(long uploadSize) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        blobStore.put(new GeneratedInputStream(uploadSize));
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    /**
+     * Produces pseudo-random bytes without holding them in memory, like a client upload.
+     */
+    private static final class GeneratedInputStream extends InputStream {
+
+        private final long length;
+        private long position;
+
+        GeneratedInputStream(long length) {
+            this.length = length;
+        }
+
+        @Override
+        public int read() {
+            return position < length ? (int) (position++ * 31 % 251) : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int len) {
+            if (position >= length) {
+                return -1;
+            }
+            int count = (int) Math.min(len, length - position);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) (position++ * 31 % 251);
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.jdbc.JdbcTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieMatchDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.TestFixtures;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Images;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Patients;
+import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.PatientRepository;
+
+import jakarta.persistence.EntityManagerFactory;
+
+@SpringBootTest
+class MaladieServiceTests {
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    @Autowired
+    private MaladieService maladieService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private ImageStorageService imageStorageService;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        entityManagerFactory.getCache().evictAll();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, "IMAGES", "patient_maladie", "Patients_symptomesManifester",
+                "Patients_traitementSuivie", "PATIENTS", "Maladies_symptomes", "Maladies_traitements", "MALADIES");
+        entityManagerFactory.getCache().evictAll();
+    }
+
+    @Test
+    void repeatedLookupsAreServedFromTheSecondLevelCache() {
+        Long id = maladieService.createMaladie(maladie("Paludisme", "Parasitaire")).id();
+        maladieService.getMaladieById(id);
+
+        statistics.clear();
+        MaladieDTO cached = maladieService.getMaladieById(id).orElseThrow();
+
+        assertThat(cached.symptomes()).containsExactly("fièvre");
+        assertThat(statistics.getPrepareStatementCount()).isZero();
+        assertThat(statistics.getSecondLevelCacheHitCount()).isPositive();
+    }
+
+    @Test
+    void updatesAndPatchesAreVisibleThroughTheCache() {
+        Long id = maladieService.createMaladie(maladie("Paludisme", "Parasitaire")).id();
+        maladieService.getMaladieById(id);
+
+        maladieService.updateMaladie(id, new MaladieDTO(id, "Paludisme grave", "Parasitaire",
+                List.of("fièvre", "convulsions"), List.of("artésunate"), null), null);
+        assertThat(maladieService.getMaladieById(id).orElseThrow().symptomes())
+                .containsExactlyInAnyOrder("fièvre", "convulsions");
+
+        maladieService.patchMaladie(id, fixtures.maladiePatch(Map.of("nom", "Neuropaludisme")), null);
+        assertThat(maladieService.getMaladieById(id).orElseThrow().nom()).isEqualTo("Neuropaludisme");
+
+        maladieService.deleteMaladieID(id);
+        assertThat(maladieService.getMaladieById(id)).isEmpty();
+    }
+
+    @Test
+    void cachedTypeQueriesAreInvalidatedByWrites() {
+        maladieService.createMaladie(maladie("Grippe", "Virale"));
+        assertThat(maladieService.getMaladiesByType("Virale")).hasSize(1);
+
+        statistics.clear();
+        assertThat(maladieService.getMaladiesByType("Virale")).hasSize(1);
+        assertThat(statistics.getQueryCacheHitCount()).isEqualTo(1);
+        assertThat(statistics.getPrepareStatementCount()).isZero();
+
+        maladieService.createMaladie(maladie("Dengue", "Virale"));
+        assertThat(maladieService.getMaladiesByType("Virale")).extracting(MaladieDTO::nom)
+                .containsExactlyInAnyOrder("Grippe", "Dengue");
+    }
+
+    @Test
+    void deletingAMaladieUsesAFixedNumberOfStatementsAndKeepsSharedBlobs() throws IOException {
+        Long tuberculose = maladieService.createMaladie(maladie("Tuberculose", "Bactérienne")).id();
+        Long paludisme = maladieService.createMaladie(maladie("Paludisme", "Parasitaire")).id();
+        Long cholera = maladieService.createMaladie(maladie("Choléra", "Bactérienne")).id();
+        fixtures.createPatients(3, List.of(tuberculose, cholera));
+        fixtures.createPatients(60, List.of(paludisme, cholera));
+        storeImage("tuberculose.png", "radio tuberculose", tuberculose);
+        for (int i = 0; i < 10; i++) {
+            storeImage("paludisme-" + i + ".png", "frottis " + i, paludisme);
+        }
+        String sharedHash = storeImage("cholera.png", "frottis 0", cholera).getContentHash();
+        String ownHash = storeImage("paludisme-10.png", "frottis 10", paludisme).getContentHash();
+
+        // Both deletions start from a cached maladie: each one evicts the maladies region
+        maladieService.getMaladieById(tuberculose);
+        long smallDeleteStatements = fixtures.countStatements(() -> maladieService.deleteMaladieID(tuberculose));
+        maladieService.getMaladieById(paludisme);
+        assertThat(entityManagerFactory.getCache().contains(Maladies.class, paludisme)).isTrue();
+        long largeDeleteStatements = fixtures.countStatements(() -> maladieService.deleteMaladieID(paludisme));
+
+        assertThat(largeDeleteStatements).isEqualTo(smallDeleteStatements);
+        assertThat(statistics.getCollectionStatistics(Maladies.class.getName() + ".patientsAffecter").getLoadCount()).isZero();
+        assertThat(entityManagerFactory.getCache().contains(Maladies.class, paludisme)).isFalse();
+        assertThat(maladieService.getMaladieById(paludisme)).isEmpty();
+        assertThat(jdbcTemplate.queryForList("SELECT DISTINCT maladie_id FROM patient_maladie", Long.class))
+                .containsExactly(cholera);
+        assertThat(jdbcTemplate.queryForList("SELECT name FROM IMAGES", String.class)).containsExactly("cholera.png");
+        assertThat(blobStore.exists(ownHash)).isFalse();
+        assertThat(blobStore.exists(sharedHash)).isTrue();
+    }
+
+    @Test
+    void differentialRanksMaladiesBySharedSymptoms() {
+        Long paludisme = maladieService.createMaladie(new MaladieDTO(null, "Paludisme", "Parasitaire",
+                List.of("Fièvre", "frissons", "céphalées"), List.of(), null)).id();
+        Long grippe = maladieService.createMaladie(new MaladieDTO(null, "Grippe", "Virale",
+                List.of("fièvre", "toux", "courbatures", "céphalées", "fatigue"), List.of(), null)).id();
+        Long typhoide = maladieService.createMaladie(new MaladieDTO(null, "Typhoïde", "Bactérienne",
+                List.of("fievre", "douleurs abdominales"), List.of(), null)).id();
+        maladieService.createMaladie(new MaladieDTO(null, "Varicelle", "Virale", List.of("éruption"), List.of(), null));
+        Long patientId = transactionTemplate.execute(status -> {
+            Patients patient = new Patients();
+            patient.setNom("Nom");
+            patient.setPrenom("Prenom");
+            patient.setTelephone(690000000);
+            patient.setEmail("differentiel@hopital.cm");
+            patient.setStade(stadePatient.STADE_I);
+            patient.setSymptomesManifester(Set.of("fièvre", "Céphalées"));
+            return patientRepository.save(patient).getId();
+        });
+
+        List<MaladieMatchDTO> matches = maladieService.getDifferentialForPatient(patientId, null).orElseThrow();
+
+        // Both symptoms: the maladie they cover best comes first; then one shared symptom
+        assertThat(matches).extracting(MaladieMatchDTO::id).containsExactly(paludisme, grippe, typhoide);
+        assertThat(matches.get(0).symptomesCommuns()).containsExactlyInAnyOrder("fièvre", "Céphalées");
+        assertThat(matches.get(0).totalSymptomes()).isEqualTo(3);
+
+        maladieService.patchMaladie(paludisme, fixtures.maladiePatch(Map.of("symptomes", List.of("frissons"))), null);
+        maladieService.deleteMaladieID(typhoide);
+        assertThat(maladieService.getDifferentialForPatient(patientId, null).orElseThrow())
+                .extracting(MaladieMatchDTO::id).containsExactly(grippe);
+        assertThat(maladieService.getDifferentialForPatient(-1L, null)).isEmpty();
+    }
+
+    private Images storeImage(String name, String content, Long maladieId) throws IOException {
+        return imageStorageService.store(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)),
+                name, "image/png", maladieId);
+    }
+
+    private static MaladieDTO maladie(String nom, String type) {
+        return new MaladieDTO(null, nom, type, List.of("fièvre"), List.of("repos"), null);
+    }
+}
@@ -0,0 +1,240 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.jdbc.JdbcTestUtils;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.CursorPage;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieSummaryDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientCreateUpdateDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientSumDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.TestFixtures;
+import com.bassilekin.inf222.tp_inf222_hopital.config.PaginationProperties;
+import com.bassilekin.inf222.tp_inf222_hopital.entities.Maladies;
+import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.MaladieRepository;
+import com.bassilekin.inf222.tp_inf222_hopital.repository.PatientRepository;
+
+import jakarta.persistence.EntityManagerFactory;
+
+@SpringBootTest
+class PatientServiceTests {
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    @Autowired
+    private PatientService patientService;
+
+    @Autowired
+    private MaladieRepository maladieRepository;
+
+    @Autowired
+    private MaladieService maladieService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PaginationProperties paginationProperties;
+
+    @AfterEach
+    void cleanUp() {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, "patient_maladie", "Patients_symptomesManifester",
+                "Patients_traitementSuivie", "PATIENTS", "Maladies_symptomes", "Maladies_traitements", "MALADIES");
+    }
+
+    @Test
+    void patientsPageUsesAFixedNumberOfStatements() {
+        List<Long> maladieIds = createMaladies(4).subList(0, 2);
+
+        fixtures.createPatients(5, maladieIds);
+        long smallListStatements = fixtures.countStatements(() -> assertThat(patientService.getPatientsPage(null, 50).items()).hasSize(5));
+
+        // A page of the largest size: the requested one is clamped to app.pagination.max-size
+        fixtures.createPatients(paginationProperties.maxSize() - 5, maladieIds);
+        long largeListStatements = fixtures.countStatements(() -> {
+            List<PatientDTO> patients = patientService.getPatientsPage(null, paginationProperties.maxSize() + 1).items();
+            assertThat(patients).hasSize(paginationProperties.maxSize());
+            assertThat(patients).allSatisfy(p -> {
+                assertThat(p.maladiesAffectees()).hasSize(2);
+                assertThat(p.symptomesManifester()).containsExactlyInAnyOrder("fièvre", "toux");
+                assertThat(p.traitementSuivie()).containsExactly("paracétamol");
+            });
+        });
+
+        // The page, then one query per collection (PatientRepository.fetch*Of) whatever its size. Adding the
+        // maladies to setMaladies hashes their symptomes and traitements (Lombok hashCode): one batch each,
+        // none when the second-level cache holds them
+        assertThat(largeListStatements).isEqualTo(smallListStatements);
+        assertThat(largeListStatements).isLessThanOrEqualTo(6);
+    }
+
+    @Test
+    void summaryViewsReadColumnsWithoutLoadingEntities() {
+        fixtures.createPatients(30, createMaladies(2));
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        CursorPage<PatientSumDTO> first = patientService.getPatientSummariesPage(null, 20);
+        CursorPage<PatientSumDTO> second = patientService.getPatientSummariesPage(first.nextCursor(), 20);
+        List<PatientSumDTO> byStade = patientService.findSummariesByStade(stadePatient.STADE_I);
+        List<PatientSumDTO> filtered = patientService.findSummariesByNomAndStadeAndTraitement("Nom7", null, "paracé");
+
+        assertThat(first.items()).hasSize(20);
+        assertThat(second.items()).hasSize(10);
+        assertThat(second.nextCursor()).isNull();
+        assertThat(byStade).hasSize(30).extracting(PatientSumDTO::id).isSorted();
+        assertThat(byStade).allSatisfy(p -> assertThat(p.traitementSuivie()).containsExactly("paracétamol"));
+        assertThat(filtered).singleElement().satisfies(p -> {
+            assertThat(p.prenom()).isEqualTo("Prenom7");
+            assertThat(p.stade()).isEqualTo(stadePatient.STADE_I);
+        });
+        // One query for the rows and one for their treatments per call
+        assertThat(statistics.getEntityLoadCount()).isZero();
+        assertThat(statistics.getCollectionLoadCount()).isZero();
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(8);
+    }
+
+    @Test
+    void patientLookupsAreCachedUntilThePatientOrOneOfItsMaladiesChanges() {
+        createMaladies(2);
+        Long maladieId = maladieRepository.findAll().get(0).getId();
+        Long patientId = patientService.createPatient(new PatientCreateUpdateDTO("Fouda", "Alice", 690000030, 690000031,
+                "fouda@hopital.cm", "B+", stadePatient.STADE_IV, List.of("fièvre"), List.of("repos"), List.of(maladieId))).id();
+
+        assertThat(fixtures.countStatements(() -> assertThat(patientService.getPatientById(patientId)).isPresent())).isPositive();
+        long cachedStatements = fixtures.countStatements(() -> {
+            assertThat(patientService.getPatientById(patientId)).get().extracting(PatientDTO::nom).isEqualTo("Fouda");
+            assertThat(patientService.findByEmail("fouda@hopital.cm")).get().extracting(PatientDTO::id).isEqualTo(patientId);
+        });
+        assertThat(cachedStatements).isZero();
+        // First lookup by telephone reads the patient once, then shares the entry
+        patientService.findByTelephone(690000031);
+        assertThat(fixtures.countStatements(() -> assertThat(patientService.findByTelephone(690000031)).get()
+                .extracting(PatientDTO::numUrgence).isEqualTo(690000030))).isZero();
+
+        patientService.partialUpdatePatient(patientId, fixtures.patientPatch(Map.of("nom", "Fouda-Ndi", "email", "fouda.ndi@hopital.cm")), null);
+        assertThat(patientService.getPatientById(patientId)).get().extracting(PatientDTO::nom).isEqualTo("Fouda-Ndi");
+        assertThat(patientService.findByEmail("fouda@hopital.cm")).isEmpty();
+        assertThat(patientService.findByEmail("fouda.ndi@hopital.cm")).get().extracting(PatientDTO::id).isEqualTo(patientId);
+
+        maladieService.patchMaladie(maladieId, fixtures.maladiePatch(Map.of("nom", "Paludisme grave")), null);
+        assertThat(patientService.getPatientById(patientId)).get()
+                .satisfies(p -> assertThat(p.maladiesAffectees()).extracting(MaladieSummaryDTO::nom).containsExactly("Paludisme grave"));
+        maladieService.deleteMaladieID(maladieId);
+        assertThat(patientService.getPatientById(patientId)).get()
+                .satisfies(p -> assertThat(p.maladiesAffectees()).isEmpty());
+
+        patientService.deletePatient(patientId);
+        assertThat(patientService.getPatientById(patientId)).isEmpty();
+        assertThat(patientService.findByTelephone(690000031)).isEmpty();
+    }
+
+    @Test
+    void exportPatientsStreamsEveryPatientInIdOrder() {
+        fixtures.createPatients(20, createMaladies(2));
+
+        List<PatientDTO> exported = new ArrayList<>();
+        long count = patientService.exportPatients(exported::add);
+
+        assertThat(count).isEqualTo(20);
+        assertThat(exported).extracting(PatientDTO::id).isSorted().doesNotHaveDuplicates();
+        assertThat(exported).allSatisfy(p -> assertThat(p.maladiesAffectees()).hasSize(2));
+    }
+
+    @Test
+    void changingOneOfManyDiagnosesOnlyWritesTheChangedLinks() {
+        createMaladies(32);
+        List<Long> maladieIds = maladieRepository.findAll().stream().map(Maladies::getId).sorted().toList();
+        Long patientId = patientService.createPatient(new PatientCreateUpdateDTO("Nom", "Prenom", 690000000, 690000001,
+                "diagnostics@hopital.cm", "O+", stadePatient.STADE_II, List.of("fièvre"), List.of(), maladieIds.subList(0, 30))).id();
+
+        List<Long> newIds = new ArrayList<>(maladieIds.subList(1, 30));
+        newIds.add(maladieIds.get(31));
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        PatientDTO updated = patientService.partialUpdatePatient(patientId, fixtures.patientPatch(Map.of("maladieIds", newIds)), null).orElseThrow();
+
+        assertThat(updated.maladiesAffectees()).extracting(MaladieSummaryDTO::id).containsExactlyInAnyOrderElementsOf(newIds);
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(12);
+        assertThat(statistics.getCollectionStatistics(Maladies.class.getName() + ".patientsAffecter").getLoadCount()).isZero();
+        // The join table statements do not evict the maladies catalog from the second-level cache
+        assertThat(entityManagerFactory.getCache().contains(Maladies.class, maladieIds.get(31))).isTrue();
+        assertThat(jdbcTemplate.queryForList("SELECT maladie_id FROM patient_maladie WHERE patient_id = ?", Long.class, patientId))
+                .containsExactlyInAnyOrderElementsOf(newIds);
+    }
+
+    @Test
+    void patchesOnlyWriteTheValuesThatChangeAndRejectWrongTypes() {
+        Long patientId = patientService.createPatient(new PatientCreateUpdateDTO("Nom", "Prenom", 690000040, 690000041,
+                "patch@hopital.cm", "A+", stadePatient.STADE_I, List.of("fièvre", "toux"), List.of("repos"), List.of())).id();
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        patientService.partialUpdatePatient(patientId, fixtures.patientPatch(Map.of("nom", "Nom", "stade", "STADE_I",
+                "symptomesManifester", List.of("toux", "fièvre"), "maladieIds", List.of())), null).orElseThrow();
+        assertThat(statistics.getEntityUpdateCount()).isZero();
+        assertThat(statistics.getCollectionUpdateCount()).isZero();
+
+        // One symptom replaced: the collection is updated in place, not deleted and inserted again
+        patientService.partialUpdatePatient(patientId, fixtures.patientPatch(Map.of("symptomesManifester", List.of("toux", "frissons"))), null);
+        assertThat(statistics.getCollectionUpdateCount()).isEqualTo(1);
+        assertThat(statistics.getCollectionRecreateCount()).isZero();
+        assertThat(statistics.getCollectionRemoveCount()).isZero();
+        assertThat(patientService.getPatientById(patientId)).get()
+                .satisfies(p -> assertThat(p.symptomesManifester()).containsExactlyInAnyOrder("toux", "frissons"));
+
+        assertThatThrownBy(() -> fixtures.patientPatch(Map.of("telephone", "690000042"))).isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("'telephone' must be an integer");
+        assertThatThrownBy(() -> fixtures.patientPatch(Map.of("stade", "STADE_X"))).isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("'stade' must be one of");
+        assertThatThrownBy(() -> fixtures.patientPatch(Map.of("symptomesManifester", List.of(1)))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void textSearchIgnoresAccentsToleratesTyposAndRanksNamesFirst() {
+        Long mbarga = patientService.createPatient(new PatientCreateUpdateDTO("Mbarga", "Hélène", 690000010, 690000011,
+                "mbarga@hopital.cm", "A+", stadePatient.STADE_I, List.of("fièvre"), List.of("paracétamol"), List.of())).id();
+        Long essomba = patientService.createPatient(new PatientCreateUpdateDTO("Essomba", "Paul", 690000020, 690000021,
+                "essomba@hopital.cm", "B+", stadePatient.STADE_II, List.of("toux", "Hélène"), List.of("amoxicilline"), List.of())).id();
+
+        assertThat(patientService.searchText("PARACETAMOL", null)).extracting(PatientDTO::id).containsExactly(mbarga);
+        assertThat(patientService.searchText("Mbraga", null)).extracting(PatientDTO::id).containsExactly(mbarga);
+        assertThat(patientService.searchText("toux amoxiciline", null)).extracting(PatientDTO::id).containsExactly(essomba);
+        assertThat(patientService.searchText("helene", null)).extracting(PatientDTO::id).containsExactly(mbarga, essomba);
+
+        patientService.deletePatient(mbarga);
+        assertThat(patientService.searchText("helene", null)).extracting(PatientDTO::id).containsExactly(essomba);
+    }
+
+    private List<Long> createMaladies(int count) {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Maladies maladie = new Maladies();
+            maladie.setNom("Maladie " + i);
+            maladie.setType("Virale");
+            maladie.setSymptomes(Set.of("symptome " + i));
+            maladie.setTraitements(Set.of("traitement " + i));
+            ids.add(maladieRepository.save(maladie).getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,84 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.jdbc.JdbcTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.TestFixtures;
+import com.bassilekin.inf222.tp_inf222_hopital.config.WriteBehindProperties;
+import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@SpringBootTest
+class PatientWriteBehindTests {
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    @Autowired
+    private PatientService patientService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void cleanUp() {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, "patient_maladie", "Patients_symptomesManifester",
+                "Patients_traitementSuivie", "PATIENTS", "Maladies_symptomes", "Maladies_traitements", "MALADIES");
+    }
+
+    @Test
+    void patchesAreMergedPerPatientAndFlushedInOrderWithinTheCapacity() throws Exception {
+        Long first = fixtures.createPatient(1);
+        Long second = fixtures.createPatient(2);
+        Long third = fixtures.createPatient(3);
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        // A long linger keeps the burst pending until close() flushes it
+        PatientWriteBehind writeBehind = new PatientWriteBehind(new WriteBehindProperties(true, 2, 1, 200, Duration.ofSeconds(30)),
+                patientService, transactionManager, meterRegistry);
+
+        assertThat(writeBehind.submit(first, fixtures.patientPatch(Map.of("stade", "STADE_II", "symptomesManifester", List.of("toux"))))).isTrue();
+        assertThat(writeBehind.submit(first, fixtures.patientPatch(Map.of("stade", "STADE_IV")))).isTrue();
+        assertThat(writeBehind.submit(second, fixtures.patientPatch(Map.of("maladieIds", List.of(-1))))).isTrue();
+        assertThat(writeBehind.submit(third, fixtures.patientPatch(Map.of("stade", "STADE_III")))).isFalse();
+        assertThat(meterRegistry.get("app.patients.write-behind.depth").gauge().value()).isEqualTo(2);
+
+        writeBehind.close();
+        assertThatThrownBy(() -> writeBehind.submit(third, fixtures.patientPatch(Map.of("stade", "STADE_III"))))
+                .isInstanceOf(RejectedExecutionException.class);
+
+        PatientDTO flushed = patientService.getPatientById(first).orElseThrow();
+        assertThat(flushed.stade()).isEqualTo(stadePatient.STADE_IV);
+        assertThat(flushed.symptomesManifester()).containsExactly("toux");
+        assertThat(patientService.getPatientById(third).orElseThrow().stade()).isEqualTo(stadePatient.STADE_I);
+        // The unknown maladie of the second patient rolled its batch back: the first one was retried alone
+        assertThat(count(meterRegistry, "merged")).isEqualTo(1);
+        assertThat(count(meterRegistry, "rejected")).isEqualTo(2);
+        assertThat(count(meterRegistry, "applied")).isEqualTo(1);
+        assertThat(count(meterRegistry, "failed")).isEqualTo(1);
+        assertThat(meterRegistry.get("app.patients.write-behind.lag").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("app.patients.write-behind.depth").gauge().value()).isZero();
+    }
+
+    private static double count(MeterRegistry meterRegistry, String outcome) {
+        return meterRegistry.get("app.patients.write-behind.patches").tag("outcome", outcome).counter().count();
+    }
+}
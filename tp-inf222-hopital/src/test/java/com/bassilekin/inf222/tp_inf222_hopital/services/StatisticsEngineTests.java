@@ -0,0 +1,102 @@
+package com.bassilekin.inf222.tp_inf222_hopital.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.jdbc.JdbcTestUtils;
+
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.MaladieDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.DTOs.PatientCreateUpdateDTO;
+import com.bassilekin.inf222.tp_inf222_hopital.TestFixtures;
+import com.bassilekin.inf222.tp_inf222_hopital.enums.stadePatient;
+
+import jakarta.persistence.EntityManagerFactory;
+
+@SpringBootTest
+class StatisticsEngineTests {
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    @Autowired
+    private StatisticsEngine statisticsEngine;
+
+    @Autowired
+    private PatientService patientService;
+
+    @Autowired
+    private MaladieService maladieService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void synchronizeWithTheDatabase() {
+        // Other test classes clean the tables with plain JDBC, which publishes no event
+        statisticsEngine.reconcile();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        JdbcTestUtils.deleteFromTables(jdbcTemplate, "patient_maladie", "Patients_symptomesManifester",
+                "Patients_traitementSuivie", "PATIENTS", "Maladies_symptomes", "Maladies_traitements", "MALADIES");
+    }
+
+    @Test
+    void countersFollowTheWriteMethodsAndMatchTheDatabase() {
+        Long grippe = maladieService.createMaladie(new MaladieDTO(null, "Grippe", "Virale", List.of("fièvre"), List.of("repos"), null)).id();
+        Long paludisme = maladieService.createMaladie(new MaladieDTO(null, "Paludisme", "Parasitaire", List.of("fièvre", "frissons"), List.of(), null)).id();
+        Long first = patientService.createPatient(patient("a@hopital.cm", 690000001, stadePatient.STADE_I, List.of(grippe))).id();
+        Long second = patientService.createPatient(patient("b@hopital.cm", 690000002, stadePatient.STADE_IV, List.of(grippe, paludisme))).id();
+
+        patientService.partialUpdatePatient(first, fixtures.patientPatch(Map.of("stade", "STADE_IV", "traitementSuivie", List.of())), null);
+        maladieService.patchMaladie(paludisme, fixtures.maladiePatch(Map.of("type", "Virale", "traitements", List.of("artésunate"))), null);
+        patientService.deletePatient(second);
+
+        Map<String, Object> patientStats = patientService.getPatientStats();
+        Map<String, Object> maladieStats = maladieService.getMaladiesStats();
+        assertThat(patientStats).containsEntry("totalPatients", 1L)
+                .containsEntry("criticalPatientsCount", 1L)
+                .containsEntry("patientsByStade", Map.of("STADE_IV", 1L))
+                .containsEntry("patientsUnderTreatment", 0L);
+        assertThat(maladieStats).containsEntry("total de maladies", 2L)
+                .containsEntry("maladies par type", Map.of("Virale", 2L))
+                .containsEntry("Compte de symptomes manifester", 2L)
+                .containsEntry("patients par maladie", Map.of("Grippe", 1L));
+
+        // A rebuild from the database finds the same figures
+        statisticsEngine.reconcile();
+        assertThat(patientService.getPatientStats()).isEqualTo(patientStats);
+        assertThat(maladieService.getMaladiesStats()).isEqualTo(maladieStats);
+    }
+
+    @Test
+    void readingTheStatisticsRunsNoQuery() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        patientService.getPatientStats();
+
+        statistics.clear();
+        patientService.getPatientStats();
+        maladieService.getMaladiesStats();
+
+        assertThat(statistics.getPrepareStatementCount()).isZero();
+    }
+
+    private static PatientCreateUpdateDTO patient(String email, int telephone, stadePatient stade, List<Long> maladieIds) {
+        return new PatientCreateUpdateDTO("Nom", "Prenom", 690000000, telephone, email, "O+", stade,
+                List.of("fièvre"), List.of("paracétamol"), maladieIds);
+    }
+}
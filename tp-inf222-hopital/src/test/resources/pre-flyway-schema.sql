@@ -0,0 +1,42 @@
+-- Schema and rows of dump.sql (database of before Flyway and the blob store), in H2 syntax: identity IDs
+-- for the patients, image bytes in IMAGES.data (a large object on PostgreSQL), no contentHash.
+
+create table MALADIES (
+    id bigint generated by default as identity primary key,
+    nom varchar(100) not null,
+    type varchar(50)
+);
+create table Maladies_symptomes (Maladies_id bigint not null references MALADIES, symptomes varchar(255));
+create table Maladies_traitements (Maladies_id bigint not null references MALADIES, traitements varchar(255));
+
+create table IMAGES (
+    id bigint generated by default as identity primary key,
+    data binary large object,
+    name varchar(255) unique,
+    type varchar(255),
+    maladies_id bigint not null references MALADIES
+);
+
+create table PATIENTS (
+    id bigint generated by default as identity primary key,
+    email varchar(255) unique,
+    nom varchar(255),
+    num_urgence integer not null,
+    prenom varchar(255),
+    telephone integer unique,
+    groupeSanguin varchar(2),
+    stade smallint check (stade between 0 and 4)
+);
+create table Patients_symptomesManifester (Patients_id bigint not null references PATIENTS, symptomesManifester varchar(255));
+create table Patients_traitementSuivie (Patients_id bigint not null references PATIENTS, traitementSuivie varchar(255));
+create table patient_maladie (
+    maladie_id bigint not null references MALADIES,
+    patient_id bigint not null references PATIENTS,
+    primary key (maladie_id, patient_id)
+);
+
+insert into MALADIES (id, nom, type) values (2, 'Cancer du poumon', 'Cancer');
+insert into IMAGES (id, data, name, type, maladies_id) values (1, X'ffd8ffe0', 'cancerPoumon.jpeg', 'image/jpeg', 2);
+insert into PATIENTS (id, email, nom, num_urgence, prenom, telephone, groupeSanguin, stade)
+    values (7, 'ancien@hopital.cm', 'Ancien', 690000000, 'Patient', 600000007, 'O+', 1);
+insert into patient_maladie (maladie_id, patient_id) values (2, 7);